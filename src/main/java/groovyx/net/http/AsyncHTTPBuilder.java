@@ -21,18 +21,40 @@
  */
 package groovyx.net.http;
 
+import groovy.lang.Closure;
+
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.HttpVersion;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.params.ConnManagerParams;
 import org.apache.http.conn.params.ConnPerRouteBean;
@@ -40,12 +62,25 @@ import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.AbstractHttpClient;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.impl.nio.client.DefaultHttpAsyncClient;
+import org.apache.http.impl.nio.conn.PoolingClientAsyncConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.FileContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+import org.apache.http.nio.reactor.IOReactorException;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
 
 /**
  * This implementation makes all requests asynchronous by submitting jobs to a
@@ -54,6 +89,10 @@ import org.apache.http.params.HttpProtocolParams;
  * {@link Future#get() get} method will provide access to whatever value was
  * returned from the response handler closure.
  *
+ * <p>Optionally, requests may be executed using non-blocking I/O so that
+ * waiting for a response does not tie up a thread.  See
+ * {@link #isNonBlocking()}.</p>
+ *
  * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
  */
 public class AsyncHTTPBuilder extends HTTPBuilder {
@@ -66,6 +105,32 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
     protected ExecutorService threadPool;
 //      = (ThreadPoolExecutor)Executors.newCachedThreadPool();
 
+    /**
+     * Default number of I/O dispatch threads used in non-blocking mode.
+     */
+    public static final int DEFAULT_IO_THREADS = 2;
+
+    private NonBlockingClient nioClient;
+
+    private boolean virtualThreads = false;
+    private int maxConnections = 0;
+    private int maxConnectionsPerRoute = 0;
+    private int queueSize = 0;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    /**
+     * What to do with a new request when the request queue is full.
+     * @see AsyncHTTPBuilder#AsyncHTTPBuilder(Map)
+     */
+    public enum OverflowPolicy {
+        /** Block the calling thread until there is room in the queue. */
+        BLOCK,
+        /** Throw a {@link RequestQueueFullException} from the request method. */
+        FAIL,
+        /** Cancel the oldest queued request to make room for the new one. */
+        DROP_OLDEST;
+    }
+
     /**
      * Accepts the following named parameters:
      * <dl>
@@ -73,12 +138,33 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
      *      running submitted requests.  If this is an instance of {@link ThreadPoolExecutor},
      *      the poolSize will be determined by {@link ThreadPoolExecutor#getMaximumPoolSize()}.
      *      The default threadPool uses an unbounded queue to accept an unlimited
-     *      number of requests.</dd>
+     *      number of requests, unless <code>queueSize</code> is given.</dd>
      *  <dt>poolSize</dt><dd>Max number of concurrent requests</dd>
+     *  <dt>queueSize</dt><dd>Max number of requests waiting for a free thread.
+     *      Default is unlimited.  See {@link #getQueueDepth()}.  In non-blocking
+     *      mode, at most <code>poolSize + queueSize</code> requests may be in
+     *      progress at once, and the overflow policy is applied before a new
+     *      request is sent.</dd>
+     *  <dt>overflowPolicy</dt><dd>An {@link OverflowPolicy} (or its name)
+     *      which determines what happens to new requests when the queue is
+     *      full.  Default is {@link OverflowPolicy#BLOCK BLOCK}.</dd>
+     *  <dt>virtualThreads</dt><dd>If <code>true</code>, each request is run
+     *      on its own virtual thread rather than from a fixed size thread pool.
+     *      Requires Java 21 or later.  See {@link #isVirtualThreads()}.</dd>
+     *  <dt>maxConnections</dt><dd>Max number of open connections.  Default is
+     *      <code>poolSize</code>.</dd>
+     *  <dt>maxConnectionsPerRoute</dt><dd>Max number of open connections to
+     *      any one host.  Default is <code>maxConnections</code>.</dd>
      *  <dt>uri</dt><dd>Default request URI</dd>
      *  <dt>contentType</dt><dd>Default content type for requests and responses</dd>
      *  <dt>timeout</dt><dd>Timeout in milliseconds to wait for a connection to
      *      be established and request to complete.</dd>
+     *  <dt>nonBlocking</dt><dd>If <code>true</code>, requests are sent and
+     *      received by a small number of I/O threads using non-blocking sockets,
+     *      and the thread pool is only used to run response handlers.  See
+     *      {@link #isNonBlocking()}.</dd>
+     *  <dt>ioThreads</dt><dd>Number of I/O dispatch threads used in
+     *      non-blocking mode.  Default is {@link #DEFAULT_IO_THREADS}.</dd>
      * </dl>
      */
     public AsyncHTTPBuilder( Map<String, ?> args ) throws URISyntaxException {
@@ -93,6 +179,33 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
             Object poolSzArg = args.remove("poolSize");
             if ( poolSzArg != null ) poolSize = Integer.parseInt( poolSzArg.toString() );
 
+            Object virtualArg = args.remove( "virtualThreads" );
+            if ( virtualArg != null && Boolean.valueOf( virtualArg.toString() ) ) {
+                if ( threadPool != null ) throw new IllegalArgumentException(
+                        "The 'threadPool' and 'virtualThreads' parameters may not be combined" );
+                threadPool = newVirtualThreadExecutor();
+                this.virtualThreads = true;
+            }
+
+            Object queueSizeArg = args.remove( "queueSize" );
+            if ( queueSizeArg != null ) {
+                if ( threadPool != null ) throw new IllegalArgumentException(
+                        "The 'queueSize' parameter may not be used with a custom or virtual thread pool" );
+                this.queueSize = Integer.parseInt( queueSizeArg.toString() );
+                if ( queueSize < 1 ) throw new IllegalArgumentException( "queueSize may not be < 1" );
+            }
+            Object policyArg = args.remove( "overflowPolicy" );
+            if ( policyArg != null ) this.overflowPolicy = policyArg instanceof OverflowPolicy ?
+                    (OverflowPolicy)policyArg :
+                    OverflowPolicy.valueOf( policyArg.toString().toUpperCase() );
+
+            Object maxConnArg = args.remove( "maxConnections" );
+            if ( maxConnArg != null )
+                this.maxConnections = Integer.parseInt( maxConnArg.toString() );
+            Object maxRouteArg = args.remove( "maxConnectionsPerRoute" );
+            if ( maxRouteArg != null )
+                this.maxConnectionsPerRoute = Integer.parseInt( maxRouteArg.toString() );
+
             if ( args.containsKey( "url" ) ) throw new IllegalArgumentException(
                 "The 'url' parameter is deprecated; use 'uri' instead" );
             Object defaultURI = args.remove("uri");
@@ -105,6 +218,13 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
             Object timeout = args.remove( "timeout" );
             if ( timeout != null ) setTimeout( (Integer) timeout );
 
+            Object nonBlocking = args.remove( "nonBlocking" );
+            Object ioThreads = args.remove( "ioThreads" );
+            if ( nonBlocking != null && Boolean.valueOf( nonBlocking.toString() ) ) {
+                this.nioClient = new NonBlockingClient( ioThreads != null ?
+                        Integer.parseInt( ioThreads.toString() ) : DEFAULT_IO_THREADS );
+            }
+
             if ( args.size() > 0 ) {
                 String invalidArgs = "";
                 for ( String k : args.keySet() ) invalidArgs += k + ",";
@@ -112,6 +232,79 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
             }
         }
         this.initThreadPools( poolSize, threadPool );
+        if ( this.nioClient != null ) this.nioClient.init( this.maxConnections,
+                this.maxConnectionsPerRoute, queueSize > 0 ? poolSize + queueSize : 0 );
+    }
+
+    /**
+     * Convenience method equivalent to {@link HTTPBuilder#get(Map)}, typed to
+     * return the {@link ResponseFuture} for the request.
+     */
+    @Override
+    public ResponseFuture get( Map<String,?> args )
+            throws ClientProtocolException, IOException, URISyntaxException {
+        return (ResponseFuture)super.get( args );
+    }
+
+    /**
+     * Convenience method equivalent to {@link HTTPBuilder#get(Map, Closure)},
+     * typed to return the {@link ResponseFuture} for the request.
+     */
+    @Override
+    public ResponseFuture get( Map<String,?> args, Closure responseClosure )
+            throws ClientProtocolException, IOException, URISyntaxException {
+        return (ResponseFuture)super.get( args, responseClosure );
+    }
+
+    /**
+     * Convenience method equivalent to {@link HTTPBuilder#post(Map)}, typed
+     * to return the {@link ResponseFuture} for the request.
+     */
+    @Override
+    public ResponseFuture post( Map<String,?> args )
+            throws ClientProtocolException, URISyntaxException, IOException {
+        return (ResponseFuture)super.post( args );
+    }
+
+    /**
+     * Convenience method equivalent to {@link HTTPBuilder#post(Map, Closure)},
+     * typed to return the {@link ResponseFuture} for the request.
+     */
+    @Override
+    public ResponseFuture post( Map<String,?> args, Closure responseClosure )
+            throws URISyntaxException, ClientProtocolException, IOException {
+        return (ResponseFuture)super.post( args, responseClosure );
+    }
+
+    /**
+     * Equivalent to {@link HTTPBuilder#request(Method, Closure)}, typed to
+     * return the {@link ResponseFuture} for the request.
+     */
+    @Override
+    public ResponseFuture request( Method method, Closure configClosure )
+            throws ClientProtocolException, IOException {
+        return (ResponseFuture)super.request( method, configClosure );
+    }
+
+    /**
+     * Equivalent to {@link HTTPBuilder#request(Method, Object, Closure)},
+     * typed to return the {@link ResponseFuture} for the request.
+     */
+    @Override
+    public ResponseFuture request( Method method, Object contentType, Closure configClosure )
+            throws ClientProtocolException, IOException {
+        return (ResponseFuture)super.request( method, contentType, configClosure );
+    }
+
+    /**
+     * Equivalent to {@link HTTPBuilder#request(Object, Method, Object, Closure)},
+     * typed to return the {@link ResponseFuture} for the request.
+     */
+    @Override
+    public ResponseFuture request( Object uri, Method method, Object contentType,
+            Closure configClosure ) throws ClientProtocolException, IOException,
+            URISyntaxException {
+        return (ResponseFuture)super.request( uri, method, contentType, configClosure );
     }
 
     /**
@@ -121,11 +314,17 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
      * turn should be returned by any of the public <code>request</code> methods
      * (including <code>get</code> and <code>post</code>) may be used to
      * retrieve whatever value may be returned from the executed response
-     * handler closure.
+     * handler closure.  The returned {@link ResponseFuture} also accepts
+     * callbacks to compose dependent requests without blocking.
+     *
+     * <p>In {@link #isNonBlocking() non-blocking} mode the request is instead
+     * executed by the non-blocking I/O client, and only the response handler
+     * is run from the thread pool.</p>
      */
     @Override
-    protected Future<?> doRequest( final RequestConfigDelegate delegate ) {
-        return threadPool.submit( new Callable<Object>() {
+    protected ResponseFuture doRequest( final RequestConfigDelegate delegate ) {
+        if ( this.nioClient != null ) return this.nioClient.execute( delegate );
+        ResponseFuture future = new ResponseFuture( new Callable<Object>() {
             /*@Override*/ public Object call() throws Exception {
                 try {
                     return doRequestSuper(delegate);
@@ -136,6 +335,8 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
                 }
             }
         });
+        threadPool.execute( future );
+        return future;
     }
 
     /*
@@ -149,14 +350,19 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
     /**
      * Initializes threading parameters for the HTTPClient's
      * {@link ThreadSafeClientConnManager}, and this class' ThreadPoolExecutor.
+     * Connection limits are taken from the <code>maxConnections</code> and
+     * <code>maxConnectionsPerRoute</code> constructor arguments if given,
+     * otherwise from the <code>poolSize</code>.
      */
     protected void initThreadPools( final int poolSize, final ExecutorService threadPool ) {
         if (poolSize < 1) throw new IllegalArgumentException("poolSize may not be < 1");
+        if ( this.maxConnections < 1 ) this.maxConnections = poolSize;
+        if ( this.maxConnectionsPerRoute < 1 ) this.maxConnectionsPerRoute = this.maxConnections;
         // Create and initialize HTTP parameters
         HttpParams params = super.getClient().getParams();
-        ConnManagerParams.setMaxTotalConnections(params, poolSize);
+        ConnManagerParams.setMaxTotalConnections(params, this.maxConnections);
         ConnManagerParams.setMaxConnectionsPerRoute(params,
-                new ConnPerRouteBean(poolSize));
+                new ConnPerRouteBean(this.maxConnectionsPerRoute));
 
         HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
 
@@ -169,11 +375,81 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
 
         ClientConnectionManager cm = new ThreadSafeClientConnManager(
                 params, schemeRegistry );
-        setClient(new DefaultHttpClient( cm, params ));
+        setClient(new BuilderClient( cm, params ));
 
-        this.threadPool = threadPool != null ? threadPool :
-            new ThreadPoolExecutor( poolSize, poolSize, 120, TimeUnit.SECONDS,
-                    new LinkedBlockingQueue<Runnable>() );
+        if ( threadPool != null ) this.threadPool = threadPool;
+        /* in non-blocking mode, requests in progress are limited when they
+           are sent, so a response is never rejected by the thread pool. */
+        else if ( this.queueSize < 1 || this.nioClient != null ) this.threadPool = new ThreadPoolExecutor(
+                poolSize, poolSize, 120, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>() );
+        else this.threadPool = new ThreadPoolExecutor(
+                poolSize, poolSize, 120, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>( this.queueSize ),
+                createOverflowHandler( this.overflowPolicy ) );
+    }
+
+    /**
+     * Creates the handler called by the default thread pool when the request
+     * queue is full.
+     */
+    protected RejectedExecutionHandler createOverflowHandler( final OverflowPolicy policy ) {
+        switch ( policy ) {
+        case FAIL :
+            return new RejectedExecutionHandler() {
+                public void rejectedExecution( Runnable r, ThreadPoolExecutor executor ) {
+                    checkShutdown( executor );
+                    throw new RequestQueueFullException( queueSize );
+                }
+            };
+        case DROP_OLDEST :
+            return new RejectedExecutionHandler() {
+                public void rejectedExecution( Runnable r, ThreadPoolExecutor executor ) {
+                    checkShutdown( executor );
+                    Runnable oldest = executor.getQueue().poll();
+                    // so anyone waiting on the dropped request is not blocked forever:
+                    if ( oldest instanceof Future<?> ) ((Future<?>)oldest).cancel( false );
+                    executor.execute( r );
+                }
+            };
+        default :
+            return new RejectedExecutionHandler() {
+                public void rejectedExecution( Runnable r, ThreadPoolExecutor executor ) {
+                    checkShutdown( executor );
+                    try {
+                        executor.getQueue().put( r );
+                    }
+                    catch ( InterruptedException ex ) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(
+                                "Interrupted while waiting for room in the request queue", ex );
+                    }
+                }
+            };
+        }
+    }
+
+    private static void checkShutdown( ThreadPoolExecutor executor ) {
+        if ( executor.isShutdown() ) throw new RejectedExecutionException(
+                "Thread pool has been shut down" );
+    }
+
+    /*
+     * Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively
+     * since this library is compiled for older JDKs.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor" ).invoke( null );
+        }
+        catch ( NoSuchMethodException ex ) {
+            throw new UnsupportedOperationException(
+                    "Virtual threads require Java 21 or later" );
+        }
+        catch ( Exception ex ) {
+            throw new IllegalStateException( "Could not create virtual thread executor", ex );
+        }
     }
 
     /**
@@ -209,6 +485,7 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
     public void setTimeout( int timeout ) {
         HttpConnectionParams.setConnectionTimeout( super.getClient().getParams(), timeout );
         HttpConnectionParams.setSoTimeout( super.getClient().getParams(), timeout );
+        if ( this.nioClient != null ) this.nioClient.setTimeout( timeout );
         /* this will cause a thread waiting for an available connection instance
          * to time-out   */
 //      ConnManagerParams.setTimeout( super.getClient().getParams(), timeout );
@@ -239,12 +516,107 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
         return this.threadPool;
     }
 
+    /**
+     * Get the number of requests waiting for a thread from the thread pool.
+     * Producers may use this to throttle new requests before the queue
+     * becomes full.
+     * @return the current queue size, or 0 if the thread pool is not a
+     * {@link ThreadPoolExecutor}.
+     */
+    public int getQueueDepth() {
+        if ( ! ( threadPool instanceof ThreadPoolExecutor ) ) return 0;
+        return ((ThreadPoolExecutor)threadPool).getQueue().size();
+    }
+
+    /**
+     * Get the maximum number of requests waiting for a thread.
+     * @return the <code>queueSize</code> constructor argument, or 0 if
+     * the queue is unbounded.
+     */
+    public int getQueueSize() {
+        return this.queueSize;
+    }
+
+    /**
+     * @return the policy applied to new requests when the queue is full.
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return this.overflowPolicy;
+    }
+
+    /**
+     * Indicates whether each request is executed on a new virtual thread.
+     * Since a virtual thread blocked on I/O does not tie up a platform thread,
+     * a large number of slow requests may be in progress at once.  The number
+     * of simultaneous connections is limited separately, by
+     * {@link #getMaxConnections()}; any additional requests simply wait for a
+     * free connection.
+     *
+     * @return <code>true</code> if the <code>virtualThreads</code> constructor
+     * argument was given.
+     */
+    public boolean isVirtualThreads() {
+        return this.virtualThreads;
+    }
+
+    /**
+     * Get the maximum number of open connections.
+     * @return the <code>maxConnections</code> constructor argument if given,
+     * otherwise the <code>poolSize</code>.
+     */
+    public int getMaxConnections() {
+        return this.maxConnections;
+    }
+
+    /**
+     * Get the maximum number of open connections to any one host.
+     * @return the <code>maxConnectionsPerRoute</code> constructor argument if
+     * given, otherwise {@link #getMaxConnections()}.
+     */
+    public int getMaxConnectionsPerRoute() {
+        return this.maxConnectionsPerRoute;
+    }
+
+    /**
+     * Indicates whether requests are executed using non-blocking I/O.  In this
+     * mode, any number of requests may be in progress at once while waiting
+     * for a response, limited only by the connection pool size, rather than
+     * each one occupying a thread from the thread pool.  Response handlers
+     * are still called from the thread pool, after the complete response has
+     * been received.
+     *
+     * <p>Interceptors added to the {@link #getClient() client} are also
+     * applied to non-blocking requests.  If the client is replaced by
+     * {@link #setClient(HttpClient)}, its interceptors are not used.</p>
+     *
+     * <p>Non-blocking mode requires the Apache
+     * <a href='http://hc.apache.org/httpcomponents-asyncclient-dev/'>HttpAsyncClient</a>
+     * library on the classpath.</p>
+     *
+     * @return <code>true</code> if the <code>nonBlocking</code> constructor
+     * argument was given.
+     */
+    public boolean isNonBlocking() {
+        return this.nioClient != null;
+    }
+
+    /**
+     * Creates a client which remembers its standard protocol interceptors,
+     * so that only interceptors added afterwards are applied to requests in
+     * {@link #isNonBlocking() non-blocking} mode.
+     */
+    @Override protected HttpClient createClient( HttpParams params ) {
+        return new BuilderClient( connectionPool != null ?
+                connectionPool.getConnectionManager() : null, params );
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override public void shutdown() {
         super.shutdown();
         this.threadPool.shutdown();
+        if ( this.nioClient != null ) this.nioClient.shutdown();
     }
 
     /**
@@ -255,4 +627,302 @@ public class AsyncHTTPBuilder extends HTTPBuilder {
         this.shutdown();
         super.finalize();
     }
+
+    /**
+     * This class wraps the HttpAsyncClient classes so they are not loaded
+     * unless the builder is constructed with <code>nonBlocking : true</code>.
+     * This allows HttpAsyncClient to act as an optional dependency.
+     */
+    private class NonBlockingClient {
+        private final IOReactorConfig ioConfig = new IOReactorConfig();
+        private DefaultHttpAsyncClient client;
+        private Semaphore permits;
+        private final Queue<ResponseFuture> inProgress =
+            new ConcurrentLinkedQueue<ResponseFuture>();
+
+        NonBlockingClient( int ioThreads ) {
+            if ( ioThreads < 1 ) throw new IllegalArgumentException( "ioThreads may not be < 1" );
+            ioConfig.setIoThreadCount( ioThreads );
+        }
+
+        /**
+         * @param maxPending max number of requests in progress, or 0 for
+         *  no limit.
+         */
+        void init( int maxTotal, int maxPerRoute, int maxPending ) {
+            if ( maxPending > 0 ) this.permits = new Semaphore( maxPending );
+            try {
+                PoolingClientAsyncConnectionManager cm = new PoolingClientAsyncConnectionManager(
+                        new DefaultConnectingIOReactor( ioConfig ) );
+                cm.setMaxTotal( maxTotal );
+                cm.setDefaultMaxPerRoute( maxPerRoute );
+                client = new DefaultHttpAsyncClient( cm );
+            }
+            catch ( IOReactorException ex ) {
+                throw new IllegalStateException( "Could not start non-blocking I/O reactor", ex );
+            }
+            HttpParams syncParams = getClient().getParams();
+            setTimeout( HttpConnectionParams.getConnectionTimeout( syncParams ) );
+
+            /* Auth and content-encoding are configured on the blocking client;
+               share its credentials and apply its interceptors to each request. */
+            AbstractHttpClient sync = (AbstractHttpClient)getClient();
+            client.setCredentialsProvider( sync.getCredentialsProvider() );
+            client.setCookieStore( sync.getCookieStore() );
+            client.addRequestInterceptor( new HttpRequestInterceptor() {
+                public void process( HttpRequest request, HttpContext ctx )
+                        throws HttpException, IOException {
+                    HttpClient current = getClient();
+                    if ( ! ( current instanceof BuilderClient ) ) return;
+                    BuilderClient sync = (BuilderClient)current;
+                    for ( int i = 0; i < sync.getRequestInterceptorCount(); i++ ) {
+                        HttpRequestInterceptor interceptor = sync.getRequestInterceptor( i );
+                        if ( sync.isAdded( interceptor ) ) interceptor.process( request, ctx );
+                    }
+                }
+            });
+            client.addResponseInterceptor( new HttpResponseInterceptor() {
+                public void process( HttpResponse response, HttpContext ctx )
+                        throws HttpException, IOException {
+                    HttpClient current = getClient();
+                    if ( ! ( current instanceof BuilderClient ) ) return;
+                    BuilderClient sync = (BuilderClient)current;
+                    for ( int i = 0; i < sync.getResponseInterceptorCount(); i++ ) {
+                        HttpResponseInterceptor interceptor = sync.getResponseInterceptor( i );
+                        if ( sync.isAdded( interceptor ) ) interceptor.process( response, ctx );
+                    }
+                }
+            });
+            client.start();
+        }
+
+        ResponseFuture execute( final RequestConfigDelegate delegate ) {
+            acquirePermit();
+            final ResponseFuture result = permits == null ? new ResponseFuture()
+                : new ResponseFuture() {
+                    @Override protected void done() {
+                        inProgress.remove( this );
+                        permits.release();
+                        super.done();
+                    }
+                };
+            if ( permits != null ) inProgress.add( result );
+            HttpRequestBase request;
+            try {
+                request = buildRequest( delegate );
+            }
+            catch ( Exception ex ) {
+                result.setException( ex );
+                return result;
+            }
+
+            if ( request instanceof HttpEntityEnclosingRequest ) {
+                HttpEntityEnclosingRequest req = (HttpEntityEnclosingRequest)request;
+                HttpEntity entity = req.getEntity();
+                if ( entity instanceof FileChannelEntity || entity instanceof ByteBufferEntity )
+                    req.setEntity( new ZeroCopyProducer( entity ) );
+            }
+
+            result.setRequest( client.execute( request, delegate.getContext(),
+                    new FutureCallback<HttpResponse>() {
+                public void completed( final HttpResponse response ) {
+                    // never run response handlers on an I/O dispatch thread:
+                    try {
+                        threadPool.execute( new Runnable() {
+                            public void run() {
+                                // dropped or cancelled while waiting for a thread:
+                                if ( result.isDone() ) {
+                                    consume( response );
+                                    return;
+                                }
+                                try {
+                                    result.set( handleResponse( response, delegate ) );
+                                }
+                                catch ( Throwable ex ) {
+                                    log.info( "Exception thrown from response delegate: " + delegate, ex );
+                                    result.setException( ex );
+                                }
+                            }
+                        });
+                    }
+                    catch ( RejectedExecutionException ex ) {
+                        consume( response );
+                        result.setException( ex );
+                    }
+                }
+
+                public void failed( final Exception ex ) {
+                    log.info( "Request failed: " + delegate, ex );
+                    complete( new Runnable() {
+                        public void run() { result.setException( ex ); }
+                    });
+                }
+
+                public void cancelled() {
+                    complete( new Runnable() {
+                        public void run() { result.cancel( false ); }
+                    });
+                }
+            }));
+            return result;
+        }
+
+        /*
+         * Complete a future from the thread pool rather than the I/O dispatch
+         * thread, which would otherwise run the caller's completion code.
+         */
+        private void complete( Runnable task ) {
+            try {
+                threadPool.execute( task );
+            }
+            catch ( RejectedExecutionException ex ) {
+                task.run();
+            }
+        }
+
+        /*
+         * Reserve room for a new request, applying the overflow policy if
+         * poolSize + queueSize requests are already in progress.
+         */
+        private void acquirePermit() {
+            if ( permits == null || permits.tryAcquire() ) return;
+            if ( overflowPolicy == OverflowPolicy.FAIL )
+                throw new RequestQueueFullException( queueSize );
+            if ( overflowPolicy == OverflowPolicy.DROP_OLDEST ) {
+                ResponseFuture oldest;
+                while ( ( oldest = inProgress.poll() ) != null ) {
+                    // aborts the request, and releases its permit:
+                    oldest.cancel( true );
+                    if ( permits.tryAcquire() ) return;
+                }
+            }
+            try {
+                permits.acquire();
+            }
+            catch ( InterruptedException ex ) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(
+                        "Interrupted while waiting for room in the request queue", ex );
+            }
+        }
+
+        private void consume( HttpResponse response ) {
+            try {
+                EntityUtils.consume( response.getEntity() );
+            }
+            catch ( IOException ex ) {
+                log.debug( "Error discarding response", ex );
+            }
+        }
+
+        void setTimeout( int timeout ) {
+            if ( client == null ) {
+                ioConfig.setConnectTimeout( timeout );
+                ioConfig.setSoTimeout( timeout );
+                return;
+            }
+            HttpConnectionParams.setConnectionTimeout( client.getParams(), timeout );
+            HttpConnectionParams.setSoTimeout( client.getParams(), timeout );
+        }
+
+        void shutdown() {
+            try {
+                client.shutdown();
+            }
+            catch ( InterruptedException ex ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The blocking client, which remembers the standard protocol interceptors
+     * it was created with.  The non-blocking client has its own instances of
+     * those, so it only applies the interceptors that were added later, such
+     * as content-encoding, OAuth or the user's own.
+     */
+    private static class BuilderClient extends DefaultHttpClient {
+        private final Map<Object,Boolean> builtIn =
+            new IdentityHashMap<Object,Boolean>();
+
+        BuilderClient( ClientConnectionManager cm, HttpParams params ) {
+            super( cm, params );
+            for ( int i = 0; i < getRequestInterceptorCount(); i++ )
+                builtIn.put( getRequestInterceptor( i ), Boolean.TRUE );
+            for ( int i = 0; i < getResponseInterceptorCount(); i++ )
+                builtIn.put( getResponseInterceptor( i ), Boolean.TRUE );
+        }
+
+        boolean isAdded( Object interceptor ) {
+            return ! builtIn.containsKey( interceptor );
+        }
+    }
+
+    /**
+     * Writes a {@link FileChannelEntity} or {@link ByteBufferEntity} straight
+     * to the connection.  File content is passed to
+     * {@link FileContentEncoder#transfer} when the encoder supports it, which
+     * uses {@link FileChannel#transferTo} to the socket; buffers are written
+     * to the socket as-is, so direct and mapped buffers are not copied onto
+     * the heap.  Like {@link NonBlockingClient}, this class is only loaded
+     * for a non-blocking builder.
+     */
+    private static class ZeroCopyProducer extends HttpEntityWrapper
+            implements HttpAsyncContentProducer {
+        private static final int BUFFER_SIZE = 8 * 1024;
+
+        private FileChannel channel;
+        private ByteBuffer buffer;
+        private long position;
+        private long end;
+
+        ZeroCopyProducer( HttpEntity entity ) {
+            super( entity );
+        }
+
+        public void produceContent( ContentEncoder encoder, IOControl ioctrl )
+                throws IOException {
+            if ( wrappedEntity instanceof ByteBufferEntity ) {
+                if ( buffer == null ) buffer = ((ByteBufferEntity)wrappedEntity).getBuffer();
+                encoder.write( buffer );
+                if ( ! buffer.hasRemaining() ) encoder.complete();
+                return;
+            }
+
+            FileChannelEntity file = (FileChannelEntity)wrappedEntity;
+            if ( channel == null ) {
+                channel = file.openChannel();
+                position = file.getPosition();
+                end = position + file.getContentLength();
+            }
+            long n;
+            if ( encoder instanceof FileContentEncoder )
+                n = ((FileContentEncoder)encoder).transfer( channel, position, end - position );
+            else { // e.g. a chunk encoder; read a block and write what the encoder accepts
+                if ( buffer == null ) buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+                buffer.clear();
+                if ( end - position < BUFFER_SIZE ) buffer.limit( (int)( end - position ) );
+                if ( channel.read( buffer, position ) < 0 ) n = -1;
+                else {
+                    buffer.flip();
+                    n = encoder.write( buffer );
+                }
+            }
+            if ( n < 0 || ( n == 0 && position >= channel.size() ) ) throw new IOException(
+                    "File ended after " + ( position - file.getPosition() ) + " of "
+                    + file.getContentLength() + " bytes" );
+            position += n;
+            if ( position >= end ) encoder.complete();
+        }
+
+        /* Called when the request is complete, or before it is retried */
+        public void close() throws IOException {
+            buffer = null;
+            if ( channel == null ) return;
+            try {
+                ((FileChannelEntity)wrappedEntity).release( channel );
+            }
+            finally { channel = null; }
+        }
+    }
 }
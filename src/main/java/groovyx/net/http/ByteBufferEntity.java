@@ -0,0 +1,111 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * <p>Request entity which sends the remaining bytes of a {@link ByteBuffer}
+ * with an exact <code>Content-Length</code>.</p>
+ *
+ * <p>Only a non-blocking {@link AsyncHTTPBuilder} writes a direct or
+ * memory-mapped buffer to the socket without copying it onto the heap.  Any
+ * other client calls {@link #writeTo(OutputStream)}: a heap buffer is
+ * written from its backing array, and any other buffer is copied through a
+ * small heap array, a block at a time, by a channel wrapping the output
+ * stream.</p>
+ *
+ * <p>The position and limit of the given buffer are captured when this
+ * entity is created and are not modified, so the entity is repeatable.</p>
+ *
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class ByteBufferEntity extends AbstractHttpEntity {
+
+    private final ByteBuffer buffer;
+
+    public ByteBufferEntity( ByteBuffer buffer ) {
+        if ( buffer == null ) throw new IllegalArgumentException( "buffer may not be null" );
+        this.buffer = buffer.duplicate();
+    }
+
+    /**
+     * @return a new view of the content; changing its position does not
+     *  affect this entity.
+     */
+    public ByteBuffer getBuffer() {
+        return this.buffer.duplicate();
+    }
+
+    public long getContentLength() {
+        return this.buffer.remaining();
+    }
+
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    public boolean isStreaming() {
+        return false;
+    }
+
+    public InputStream getContent() {
+        final ByteBuffer src = getBuffer();
+        return new InputStream() {
+            public int read() {
+                return src.hasRemaining() ? src.get() & 0xff : -1;
+            }
+
+            public int read( byte[] b, int off, int len ) {
+                if ( ! src.hasRemaining() ) return -1;
+                len = Math.min( len, src.remaining() );
+                src.get( b, off, len );
+                return len;
+            }
+
+            public int available() {
+                return src.remaining();
+            }
+        };
+    }
+
+    public void writeTo( OutputStream out ) throws IOException {
+        if ( out == null ) throw new IllegalArgumentException( "Output stream may not be null" );
+        ByteBuffer src = getBuffer();
+        if ( src.hasArray() )
+            out.write( src.array(), src.arrayOffset() + src.position(), src.remaining() );
+        else {
+            // not closed, since that would close the output stream:
+            WritableByteChannel target = Channels.newChannel( out );
+            while ( src.hasRemaining() ) target.write( src );
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Entity resolver which keeps the content of DTDs and entity files resolved
+ * by another resolver (i.e. the XML catalog) in memory, so they are read only
+ * once rather than for every document that references them.  Entities the
+ * delegate does not resolve are not cached.  The cache is shared by all
+ * threads and bounded by size, discarding the least recently used entities
+ * first.
+ *
+ * @see ParserRegistry#getEntityResolver()
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class CachingEntityResolver implements EntityResolver {
+
+    /** Default total size of cached entities, in bytes */
+    public static final int DEFAULT_MAX_SIZE = 1024 * 1024;
+
+    private final EntityResolver resolver;
+    private final long maxSize;
+    private long size = 0;
+    private final Map<String,Entity> cache = new LinkedHashMap<String,Entity>( 16, 0.75f, true );
+
+    /**
+     * @param resolver resolves entities before they are cached
+     * @param maxSize maximum total size of cached entities, in bytes.
+     *  Larger entities are not cached.
+     */
+    public CachingEntityResolver( EntityResolver resolver, long maxSize ) {
+        if ( resolver == null ) throw new IllegalArgumentException( "resolver may not be null" );
+        this.resolver = resolver;
+        this.maxSize = maxSize;
+    }
+
+    public InputSource resolveEntity( String publicId, String systemId )
+            throws SAXException, IOException {
+        String key = publicId + ' ' + systemId;
+        Entity entity;
+        synchronized ( cache ) {
+            entity = cache.get( key );
+        }
+        if ( entity == null ) {
+            InputSource source = resolver.resolveEntity( publicId, systemId );
+            if ( source == null || source.getCharacterStream() != null ) return source;
+            entity = read( source );
+            if ( entity == null ) return source;
+            put( key, entity );
+        }
+        InputSource source = new InputSource( new ByteArrayInputStream( entity.content ) );
+        source.setPublicId( publicId );
+        // relative references in the entity are resolved against this:
+        source.setSystemId( entity.systemId );
+        source.setEncoding( entity.encoding );
+        return source;
+    }
+
+    private Entity read( InputSource source ) throws IOException {
+        InputStream in = source.getByteStream();
+        if ( in == null ) {
+            if ( source.getSystemId() == null ) return null;
+            in = new URL( source.getSystemId() ).openStream();
+        }
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ( ( n = in.read( buffer ) ) >= 0 ) content.write( buffer, 0, n );
+            return new Entity( source.getSystemId(), source.getEncoding(), content.toByteArray() );
+        }
+        finally { in.close(); }
+    }
+
+    private void put( String key, Entity entity ) {
+        synchronized ( cache ) {
+            if ( entity.content.length > maxSize ) return;
+            Entity old = cache.put( key, entity );
+            if ( old != null ) size -= old.content.length;
+            size += entity.content.length;
+            for ( Iterator<Entity> i = cache.values().iterator(); size > maxSize && i.hasNext(); ) {
+                size -= i.next().content.length;
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Discard all cached entities, e.g. after the delegate's mappings change.
+     */
+    public void clear() {
+        synchronized ( cache ) {
+            cache.clear();
+            size = 0;
+        }
+    }
+
+    /** @return the number of cached entities */
+    public int size() {
+        synchronized ( cache ) {
+            return cache.size();
+        }
+    }
+
+    private static class Entity {
+        final String systemId;
+        final String encoding;
+        final byte[] content;
+
+        Entity( String systemId, String encoding, byte[] content ) {
+            this.systemId = systemId;
+            this.encoding = encoding;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import groovy.lang.Closure;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * Request entity which calls a closure to write the request body directly to
+ * the connection.  The closure is passed an <code>OutputStream</code>, and
+ * is not called until the request is sent.  Since the length is not known
+ * in advance the entity is sent with chunked transfer-encoding, and since
+ * the closure may not produce the same content twice, it is not repeatable.
+ *
+ * @see EncoderRegistry#encodeStream(Object, Object)
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class ClosureEntity extends AbstractHttpEntity {
+
+    private final Closure closure;
+
+    /**
+     * @param closure called with an <code>OutputStream</code> to write the
+     *  request body.
+     */
+    public ClosureEntity( Closure closure ) {
+        if ( closure == null ) throw new IllegalArgumentException( "closure may not be null" );
+        this.closure = closure;
+        setChunked( true );
+    }
+
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    public long getContentLength() {
+        return -1;
+    }
+
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Call the closure and buffer its output.  Note that this holds the
+     * entire content in memory; {@link #writeTo(OutputStream)} does not.
+     */
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeTo( buffer );
+        return new ByteArrayInputStream( buffer.toByteArray() );
+    }
+
+    public void writeTo( OutputStream out ) throws IOException {
+        if ( out == null ) throw new IllegalArgumentException( "Output stream may not be null" );
+        OutputStream body = new FilterOutputStream( out ) {
+            @Override public void write( byte[] b, int off, int len ) throws IOException {
+                out.write( b, off, len );
+            }
+            // the connection's stream is closed by the client, not the closure
+            @Override public void close() throws IOException {
+                flush();
+            }
+        };
+        closure.call( body );
+        body.flush();
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import static groovyx.net.http.URIBuilder.convertToURI;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * <p>A thread-safe pool of persistent HTTP connections which may be shared by
+ * any number of {@link HTTPBuilder} instances.  Connections are kept alive
+ * between requests and re-used for the same route (scheme, host and port) so
+ * that the cost of establishing a TCP connection and SSL handshake is paid
+ * once per connection rather than once per request.</p>
+ *
+ * <p>Usage:</p>
+ * <pre>
+ * def pool = new ConnectionPool( maxTotal : 200, maxPerRoute : 20,
+ *                                idleTimeout : 30000 )
+ * pool.setMaxPerRoute( 'https://api.example.com', 50 )
+ *
+ * def http1 = new HTTPBuilder( 'https://api.example.com' )
+ * http1.connectionPool = pool
+ * def http2 = new RESTClient( 'http://www.example.com' )
+ * http2.connectionPool = pool
+ * ...
+ * pool.shutdown()
+ * </pre>
+ *
+ * <p>Calling {@link HTTPBuilder#shutdown()} on a builder that uses a pool does
+ * <i>not</i> close the pool, since other builders may still be using it.
+ * Call {@link #shutdown()} once the pool is no longer needed.</p>
+ *
+ * @see PoolingClientConnectionManager
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class ConnectionPool {
+
+    /** Default maximum number of connections held by the pool. */
+    public static final int DEFAULT_MAX_TOTAL = 20;
+    /** Default maximum number of connections to a single route. */
+    public static final int DEFAULT_MAX_PER_ROUTE = 2;
+
+    protected final Log log = LogFactory.getLog( getClass() );
+
+    protected final PoolingClientConnectionManager connectionManager;
+    private IdleConnectionEvictor evictor;
+
+    /**
+     * Create a pool with {@link #DEFAULT_MAX_TOTAL} total connections and
+     * {@link #DEFAULT_MAX_PER_ROUTE} connections per route.
+     */
+    public ConnectionPool() {
+        this( DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE );
+    }
+
+    /**
+     * Create a pool with the given limits.
+     * @param maxTotal maximum number of connections held by the pool
+     * @param maxPerRoute maximum number of connections to any single route
+     */
+    public ConnectionPool( int maxTotal, int maxPerRoute ) {
+        this.connectionManager = new PoolingClientConnectionManager(
+                SchemeRegistryFactory.createDefault() );
+        setMaxTotal( maxTotal );
+        setMaxPerRoute( maxPerRoute );
+    }
+
+    /**
+     * Accepts the following named parameters:
+     * <dl>
+     *  <dt>maxTotal</dt><dd>Maximum number of connections held by the pool.
+     *      Default is {@link #DEFAULT_MAX_TOTAL}.</dd>
+     *  <dt>maxPerRoute</dt><dd>Maximum number of connections to any single
+     *      route.  Default is {@link #DEFAULT_MAX_PER_ROUTE}.</dd>
+     *  <dt>idleTimeout</dt><dd>Time in milliseconds after which an unused
+     *      connection is closed.  See {@link #setIdleTimeout(long)}.</dd>
+     * </dl>
+     */
+    public ConnectionPool( Map<String,?> args ) {
+        this();
+        if ( args == null ) return;
+        Object arg = args.remove( "maxTotal" );
+        if ( arg != null ) setMaxTotal( Integer.parseInt( arg.toString() ) );
+
+        arg = args.remove( "maxPerRoute" );
+        if ( arg != null ) setMaxPerRoute( Integer.parseInt( arg.toString() ) );
+
+        arg = args.remove( "idleTimeout" );
+        if ( arg != null ) setIdleTimeout( Long.parseLong( arg.toString() ) );
+
+        if ( args.size() > 0 ) {
+            String invalidArgs = "";
+            for ( String k : args.keySet() ) invalidArgs += k + ",";
+            throw new IllegalArgumentException("Unexpected keyword args: " + invalidArgs);
+        }
+    }
+
+    /**
+     * Set the maximum number of connections held by this pool, across all
+     * routes.
+     * @param max the maximum number of connections
+     */
+    public void setMaxTotal( int max ) {
+        if ( max < 1 ) throw new IllegalArgumentException( "maxTotal may not be < 1" );
+        connectionManager.setMaxTotal( max );
+    }
+
+    /**
+     * @return the maximum number of connections held by this pool.
+     */
+    public int getMaxTotal() {
+        return connectionManager.getMaxTotal();
+    }
+
+    /**
+     * Set the default maximum number of connections to a single route.
+     * @param max the maximum number of connections per route
+     */
+    public void setMaxPerRoute( int max ) {
+        if ( max < 1 ) throw new IllegalArgumentException( "maxPerRoute may not be < 1" );
+        connectionManager.setDefaultMaxPerRoute( max );
+    }
+
+    /**
+     * @return the default maximum number of connections to a single route.
+     */
+    public int getMaxPerRoute() {
+        return connectionManager.getDefaultMaxPerRoute();
+    }
+
+    /**
+     * Override the maximum number of connections for a single host.
+     * @param uri either a {@link java.net.URL}, {@link URI} or object whose
+     *  <code>toString()</code> produces a valid URI string.  Only the scheme,
+     *  host and port are used.
+     * @param max the maximum number of connections to the given host
+     * @throws URISyntaxException if the given argument does not represent a valid URI
+     */
+    public void setMaxPerRoute( Object uri, int max ) throws URISyntaxException {
+        if ( max < 1 ) throw new IllegalArgumentException( "maxPerRoute may not be < 1" );
+        connectionManager.setMaxPerRoute( getRoute( uri ), max );
+    }
+
+    /**
+     * Get the maximum number of connections for a single host.
+     * @see #setMaxPerRoute(Object, int)
+     * @throws URISyntaxException if the given argument does not represent a valid URI
+     */
+    public int getMaxPerRoute( Object uri ) throws URISyntaxException {
+        return connectionManager.getMaxPerRoute( getRoute( uri ) );
+    }
+
+    /**
+     * Close connections that have been idle for longer than the given time.
+     * This starts a daemon thread that periodically evicts expired and idle
+     * connections from the pool, so that sockets which have been closed by
+     * the server are not handed out to a request.
+     * @param idleTimeout idle time in milliseconds, or <code>0</code> to stop
+     *  evicting idle connections.
+     */
+    public synchronized void setIdleTimeout( long idleTimeout ) {
+        if ( idleTimeout < 0 ) throw new IllegalArgumentException( "idleTimeout may not be < 0" );
+        if ( this.evictor != null ) this.evictor.shutdown();
+        this.evictor = null;
+        if ( idleTimeout == 0 ) return;
+        this.evictor = new IdleConnectionEvictor( connectionManager, idleTimeout, log );
+        this.evictor.start();
+    }
+
+    /**
+     * @return the idle timeout in milliseconds, or <code>0</code> if idle
+     * connections are not evicted.
+     */
+    public synchronized long getIdleTimeout() {
+        return this.evictor != null ? this.evictor.idleTimeout : 0;
+    }
+
+    /**
+     * Immediately close any connections that have been idle for longer than
+     * the given time, as well as any expired connections.
+     * @param idleTime idle time in milliseconds
+     */
+    public void closeIdleConnections( long idleTime ) {
+        connectionManager.closeExpiredConnections();
+        connectionManager.closeIdleConnections( idleTime, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Current pool statistics (leased, pending and available connections.)
+     * @return totals across all routes
+     */
+    public PoolStats getStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * The connection manager that backs this pool.  This is passed to each
+     * HttpClient instance that shares the pool.
+     * @return the pool's connection manager
+     */
+    public ClientConnectionManager getConnectionManager() {
+        return this.connectionManager;
+    }
+
+    /**
+     * Close all pooled connections and stop the idle connection evictor.  Any
+     * builders still using this pool will fail on subsequent requests.
+     */
+    public synchronized void shutdown() {
+        if ( this.evictor != null ) this.evictor.shutdown();
+        this.evictor = null;
+        connectionManager.shutdown();
+    }
+
+    /*
+     * The pool is keyed by route, whose target always carries an explicit
+     * port.  So fill in the scheme's default port if none is given.
+     */
+    private HttpRoute getRoute( Object uri ) throws URISyntaxException {
+        URI u = convertToURI( uri );
+        if ( u.getHost() == null ) throw new IllegalArgumentException(
+                "URI must contain a host name: " + uri );
+        String scheme = u.getScheme() != null ? u.getScheme() : "http";
+        int port = u.getPort();
+        if ( port < 0 ) {
+            SchemeRegistry schemes = connectionManager.getSchemeRegistry();
+            Scheme s = schemes.get( scheme );
+            if ( s == null ) throw new IllegalArgumentException( "Unknown scheme: " + scheme );
+            port = s.getDefaultPort();
+        }
+        return new HttpRoute( new HttpHost( u.getHost(), port, scheme ) );
+    }
+
+    /**
+     * Background thread which closes expired and idle connections.
+     */
+    private static class IdleConnectionEvictor extends Thread {
+        private final ClientConnectionManager connectionManager;
+        private final long idleTimeout;
+        private final Log log;
+        private volatile boolean running = true;
+
+        IdleConnectionEvictor( ClientConnectionManager connectionManager,
+                long idleTimeout, Log log ) {
+            super( "HTTPBuilder-idle-connection-evictor" );
+            this.connectionManager = connectionManager;
+            this.idleTimeout = idleTimeout;
+            this.log = log;
+            setDaemon( true );
+        }
+
+        @Override public void run() {
+            // check at least every 5 seconds, more often for short timeouts:
+            long interval = Math.min( idleTimeout, 5000 );
+            try {
+                while ( running ) {
+                    synchronized ( this ) { wait( interval ); }
+                    if ( ! running ) break;
+                    try {
+                        connectionManager.closeExpiredConnections();
+                        connectionManager.closeIdleConnections( idleTimeout, TimeUnit.MILLISECONDS );
+                    }
+                    // keep running, so one failure does not stop eviction for good:
+                    catch ( RuntimeException ex ) {
+                        log.warn( "Error evicting idle connections", ex );
+                    }
+                }
+            }
+            catch ( InterruptedException ex ) { /* terminate */ }
+        }
+
+        void shutdown() {
+            running = false;
+            synchronized ( this ) { notifyAll(); }
+        }
+    }
+}
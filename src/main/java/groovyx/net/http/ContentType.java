@@ -70,7 +70,17 @@ public enum ContentType {
     /** <code>application/x-www-form-urlencoded</code> */
     URLENC("application/x-www-form-urlencoded"),
     /** <code>application/octet-stream</code> */
-    BINARY("application/octet-stream");
+    BINARY("application/octet-stream"),
+    /**
+     * <code>application/x-ndjson</code> (newline-delimited JSON)
+     * @since 0.7.3
+     */
+    NDJSON("application/x-ndjson"),
+    /**
+     * <code>multipart/form-data</code>
+     * @since 0.7.3
+     */
+    MULTIPART("multipart/form-data");
 
     private final String[] ctStrings;
     public String[] getContentTypeStrings() { return ctStrings; }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds an {@link HTTPBuilder}'s default request headers or response
+ * handlers.  Every change replaces the underlying map with a modified copy,
+ * so {@link #snapshot()} can hand out the current map to each new request
+ * without copying it, and without the request seeing later changes.
+ * Changes to the defaults are expected to be rare compared to requests.
+ *
+ * <p>The key and entry set views are read-only.</p>
+ *
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+class CopyOnWriteMap<V> extends AbstractMap<Object,V> {
+
+    private volatile StringHashMap<V> current;
+
+    /**
+     * @param initial initial contents.  Copies are made by calling
+     *  <code>initial.clone()</code>, so the map type is preserved.
+     */
+    CopyOnWriteMap( StringHashMap<V> initial ) {
+        this.current = initial;
+    }
+
+    /**
+     * @return the current contents, which will never be modified.
+     */
+    StringHashMap<V> snapshot() {
+        return this.current;
+    }
+
+    /**
+     * Get the contents of the given map without copying it, if it is a
+     * <code>CopyOnWriteMap</code>.  Otherwise a copy is returned.
+     */
+    @SuppressWarnings("unchecked")
+    static StringHashMap<Object> snapshotOf( Map<?,?> map ) {
+        if ( map instanceof CopyOnWriteMap<?> ) return ((CopyOnWriteMap<Object>)map).snapshot();
+        return new StringHashMap<Object>( map );
+    }
+
+    @Override public V get( Object key ) { return current.get( key ); }
+
+    @Override public boolean containsKey( Object key ) { return current.containsKey( key ); }
+
+    @Override public int size() { return current.size(); }
+
+    @Override
+    public Set<Map.Entry<Object,V>> entrySet() {
+        return Collections.unmodifiableMap( current ).entrySet();
+    }
+
+    @Override
+    public synchronized V put( Object key, V value ) {
+        StringHashMap<V> copy = copy();
+        V old = copy.put( key, value );
+        this.current = copy;
+        return old;
+    }
+
+    @Override
+    public synchronized void putAll( Map<?,? extends V> m ) {
+        StringHashMap<V> copy = copy();
+        copy.putAll( m );
+        this.current = copy;
+    }
+
+    @Override
+    public synchronized V remove( Object key ) {
+        if ( ! current.containsKey( key ) ) return null;
+        StringHashMap<V> copy = copy();
+        V old = copy.remove( key );
+        this.current = copy;
+        return old;
+    }
+
+    /**
+     * Replace the entire contents of this map in a single change, so a
+     * concurrent {@link #snapshot()} sees either the old or new contents,
+     * never an empty map in between.
+     */
+    synchronized void replaceWith( Map<?,? extends V> m ) {
+        StringHashMap<V> copy = copy();
+        copy.clear();
+        copy.putAll( m );
+        this.current = copy;
+    }
+
+    @Override
+    public synchronized void clear() {
+        StringHashMap<V> copy = copy();
+        copy.clear();
+        this.current = copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private StringHashMap<V> copy() {
+        return (StringHashMap<V>)current.clone();
+    }
+}
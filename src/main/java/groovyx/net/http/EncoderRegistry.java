@@ -27,20 +27,24 @@ import groovy.lang.Writable;
 import groovy.xml.StreamingMarkupBuilder;
 import groovyx.net.http.HTTPBuilder.RequestConfigDelegate;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
-import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -53,10 +57,10 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicNameValuePair;
-import org.codehaus.groovy.runtime.DefaultGroovyMethods;
 import org.codehaus.groovy.runtime.MethodClosure;
 
 
@@ -81,6 +85,18 @@ import org.codehaus.groovy.runtime.MethodClosure;
  * <p>Contrary to its name, this class does not have anything to do with the
  * <code>content-encoding</code> HTTP header.  </p>
  *
+ * <p>Internally, every encoder is held as a {@link RequestEncoder}.  Encoder
+ * closures are adapted to that interface when they are registered, and the
+ * built-in encoders are called directly rather than through a closure.</p>
+ *
+ * <p>Since 0.7.3, {@link #encodeStream(Object, Object)} returns an
+ * {@link HttpEntity} rather than an <code>InputStreamEntity</code>, since
+ * files, buffers and closures are sent by other entity types, and it throws
+ * <code>IOException</code> rather than
+ * <code>UnsupportedEncodingException</code>.  This is a source and binary
+ * incompatible change for subclasses that override it and for code that
+ * used the narrower return type.</p>
+ *
  * @see RequestConfigDelegate#setBody(Object)
  * @see RequestConfigDelegate#send(Object, Object)
  * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
@@ -88,7 +104,8 @@ import org.codehaus.groovy.runtime.MethodClosure;
 public class EncoderRegistry implements Iterable<Map.Entry<String,Closure>> {
 
     Charset charset = Charset.defaultCharset(); // 1.5
-    private Map<String,Closure> registeredEncoders = buildDefaultEncoderMap();
+    private Map<String,RequestEncoder> registeredEncoders = adapt( buildDefaultEncoderMap() );
+    private boolean streamingJSON = false;
 
     /**
      * Set the charset used in the content-type header of all requests that send
@@ -100,24 +117,52 @@ public class EncoderRegistry implements Iterable<Map.Entry<String,Closure>> {
         this.charset = Charset.forName(charset);
     }
 
+    /**
+     * Set whether {@link #encodeJSON(Object, Object)} writes Maps,
+     * Collections and JavaBeans with a {@link JsonEntity} as the request is
+     * sent, rather than converting them to a json-lib {@link JSON} object and
+     * then to a String.  This avoids holding several copies of a large body
+     * in memory.  It is off by default since the output is not always
+     * identical to json-lib's; for example json-lib parses String values
+     * that look like JSON, and writes nulls in a Map differently.
+     * @param streaming <code>true</code> to stream every JSON model
+     * @since 0.7.3
+     */
+    public void setStreamingJSON( boolean streaming ) {
+        this.streamingJSON = streaming;
+    }
+
+    public boolean isStreamingJSON() {
+        return this.streamingJSON;
+    }
+
     /**
      * Default request encoder for a binary stream.  Acceptable argument
      * types are:
      * <ul>
      *   <li>InputStream</li>
      *   <li>byte[] / ByteArrayOutputStream</li>
+     *   <li>File / java.nio.file.Path / FileChannel</li>
+     *   <li>ByteBuffer</li>
      *   <li>Closure</li>
      * </ul>
      * If a closure is given, it is executed with an OutputStream passed
      * as the single closure argument.  Any data sent to the stream from the
-     * body of the closure is used as the request content body.
+     * body of the closure is used as the request content body.  The closure
+     * is not called until the request is sent, and writes directly to the
+     * connection (see {@link ClosureEntity}.)  Files, channels and buffers
+     * are sent with an exact content length; only a non-blocking
+     * {@link AsyncHTTPBuilder} sends them without copying through the heap
+     * (see {@link FileChannelEntity} and {@link ByteBufferEntity}.)  A
+     * FileChannel is sent from its current position to the end.
      * @param data
-     * @return an {@link HttpEntity} encapsulating this request data
-     * @throws UnsupportedEncodingException
+     * @return an {@link HttpEntity} encapsulating this request data.  Before
+     *  0.7.3 this was declared as an <code>InputStreamEntity</code>.
+     * @throws IOException if the size of a FileChannel cannot be read
      */
-    public InputStreamEntity encodeStream( Object data, Object contentType )
-            throws UnsupportedEncodingException {
-        InputStreamEntity entity = null;
+    public HttpEntity encodeStream( Object data, Object contentType )
+            throws IOException {
+        AbstractHttpEntity entity = null;
 
         if ( data instanceof ByteArrayInputStream ) {
             // special case for ByteArrayIS so that we can set the content length.
@@ -137,11 +182,18 @@ public class EncoderRegistry implements Iterable<Map.Entry<String,Closure>> {
             entity = new InputStreamEntity( new ByteArrayInputStream(
                     out.toByteArray()), out.size() );
         }
+        else if ( data instanceof File || FileTransfer.isPath( data ) ) {
+            entity = new FileChannelEntity( FileTransfer.toFile( data ) );
+        }
+        else if ( data instanceof FileChannel ) {
+            entity = new FileChannelEntity( (FileChannel)data );
+        }
+        else if ( data instanceof ByteBuffer ) {
+            entity = new ByteBufferEntity( (ByteBuffer)data );
+        }
         else if ( data instanceof Closure ) {
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            ((Closure)data).call( out ); // data is written to out
-            entity = new InputStreamEntity( new ByteArrayInputStream(
-                    out.toByteArray()), out.size() );
+            // data is written to the request stream when it is sent
+            entity = new ClosureEntity( (Closure)data );
         }
 
         if ( entity == null ) throw new IllegalArgumentException(
@@ -162,37 +214,65 @@ public class EncoderRegistry implements Iterable<Map.Entry<String,Closure>> {
      * </ul>
      * For Closure argument, a {@link PrintWriter} is passed as the single
      * argument to the closure.  Any data sent to the writer from the
-     * closure will be sent to the request content body.
+     * closure will be sent to the request content body.  Closure, Writable and
+     * Reader content is not read until the request is sent, when it is
+     * written directly to the connection (see {@link WritableEntity}.)
      * @param data
      * @return an {@link HttpEntity} encapsulating this request data
      * @throws IOException
      */
     public HttpEntity encodeText( Object data, Object contentType ) throws IOException {
-        if ( data instanceof Closure ) {
-            StringWriter out = new StringWriter();
+        if ( contentType == null ) contentType = ContentType.TEXT;
+        Writable content = null;
+        if ( data instanceof Closure ) content = new PrintWriterWritable( (Closure)data );
+        else if ( data instanceof Writable && ! ( data instanceof GString ) )
+            content = (Writable)data;
+        else if ( data instanceof Reader ) content = new ReaderWritable( (Reader)data );
+
+        if ( content != null ) {
+            // written to the request stream when it is sent
+            WritableEntity entity = new WritableEntity( content, charset, false );
+            entity.setContentType( contentType.toString() );
+            return entity;
+        }
+        // if data is a String, we are already covered.
+        return createEntity( contentType, data.toString() );
+    }
+
+    /* Passes a PrintWriter to a closure that writes text content. */
+    private static class PrintWriterWritable implements Writable {
+        private final Closure closure;
+
+        PrintWriterWritable( Closure closure ) {
+            this.closure = closure;
+        }
+
+        public Writer writeTo( Writer out ) throws IOException {
             PrintWriter writer = new PrintWriter( out );
-            ((Closure)data).call( writer );
-            writer.close();
-            out.flush();
-            data = out;
+            closure.call( writer );
+            writer.flush();
+            if ( writer.checkError() ) throw new IOException( "Error writing request body" );
+            return out;
         }
-        else if ( data instanceof Writable ) {
-            StringWriter out = new StringWriter();
-            ((Writable)data).writeTo(out);
-            out.flush();
-            data = out;
+    }
+
+    /* Copies a reader's content, then closes it. */
+    private static class ReaderWritable implements Writable {
+        private final Reader reader;
+
+        ReaderWritable( Reader reader ) {
+            this.reader = reader;
         }
-        else if ( data instanceof Reader && ! (data instanceof BufferedReader) )
-            data = new BufferedReader( (Reader)data );
-        if ( data instanceof BufferedReader ) {
-            StringWriter out = new StringWriter();
-            DefaultGroovyMethods.leftShift( out, (BufferedReader)data );
 
-            data = out;
+        public Writer writeTo( Writer out ) throws IOException {
+            try {
+                char[] buffer = new char[8192];
+                int count;
+                while ( ( count = reader.read( buffer ) ) >= 0 ) out.write( buffer, 0, count );
+            }
+            finally { reader.close(); }
+            return out;
         }
-        // if data is a String, we are already covered.
-        if ( contentType == null ) contentType = ContentType.TEXT;
-        return createEntity( contentType, data.toString() );
     }
 
     /**
@@ -249,17 +329,29 @@ public class EncoderRegistry implements Iterable<Map.Entry<String,Closure>> {
      * <code>toString</code> produces valid markup, or a Closure which will be
      * interpreted as a builder definition.  A closure argument is
      * passed to {@link StreamingMarkupBuilder#bind(groovy.lang.Closure)}.
+     * Closures and other {@link Writable}s (except GStrings) are written
+     * directly to the request stream by a {@link WritableEntity}, without
+     * creating an intermediate String.
      * @param xml data that defines the XML structure
      * @return an {@link HttpEntity} encapsulating this request data
      * @throws UnsupportedEncodingException
      */
     public HttpEntity encodeXML( Object xml, Object contentType )
             throws UnsupportedEncodingException {
+        if ( contentType == null ) contentType = ContentType.XML;
         if ( xml instanceof Closure ) {
             StreamingMarkupBuilder smb = new StreamingMarkupBuilder();
-            xml = smb.bind( xml );
+            // bound markup is re-evaluated each time it is written
+            WritableEntity entity = new WritableEntity(
+                    (Writable)smb.bind( xml ), charset, true );
+            entity.setContentType( contentType.toString() );
+            return entity;
+        }
+        if ( xml instanceof Writable && ! ( xml instanceof GString ) ) {
+            WritableEntity entity = new WritableEntity( (Writable)xml, charset, false );
+            entity.setContentType( contentType.toString() );
+            return entity;
         }
-        if ( contentType == null ) contentType = ContentType.XML;
         return createEntity( contentType, xml.toString() );
     }
 
@@ -270,6 +362,18 @@ public class EncoderRegistry implements Iterable<Map.Entry<String,Closure>> {
      * String or GString will be interpreted as valid JSON and passed directly
      * as the request body (with charset conversion if necessary.)</p>
      *
+     * <p>An Iterator, Java 8 <code>Stream</code>, array or other
+     * <code>Iterable</code> is converted to a JSON array by a
+     * {@link JsonEntity}, which writes each element as the request is sent
+     * rather than building a String first.  An Iterator can therefore be
+     * used to send a large array without holding it in memory.</p>
+     *
+     * <p>Maps, Collections and JavaBeans are converted by json-lib unless
+     * {@link #setStreamingJSON(boolean) streamingJSON} is set, so by default
+     * the whole body is built in memory (more than once) before it is sent.
+     * To send a large body, either set <code>streamingJSON</code> or pass an
+     * Iterator over its elements.</p>
+     *
      * <p>If a Closure is passed as the model, it will be executed as if it were
      * a JSON object definition passed to a {@link JsonGroovyBuilder}.  In order
      * for the closure to be interpreted correctly, there must be a 'root'
@@ -297,6 +401,11 @@ public class EncoderRegistry implements Iterable<Map.Entry<String,Closure>> {
     public HttpEntity encodeJSON( Object model, Object contentType ) throws UnsupportedEncodingException {
 
         Object json;
+        // a Closure is run by json-lib's builder, and a String is already JSON:
+        if ( streamingJSON && model != null && ! ( model instanceof Closure
+                || model instanceof String || model instanceof GString ) )
+            return jsonEntity( model, contentType );
+
         if ( model instanceof Map ) {
             json = new JSONObject();
             ((JSONObject)json).putAll( (Map)model );
@@ -312,12 +421,146 @@ public class EncoderRegistry implements Iterable<Map.Entry<String,Closure>> {
         }
         else if ( model instanceof String || model instanceof GString )
             json = model; // assume string is valid JSON already.
+        else if ( model instanceof Iterator || model instanceof Iterable
+                || JsonWriter.isStream( model )
+                || ( model != null && model.getClass().isArray() ) )
+            return jsonEntity( model, contentType );
         else json = JSONObject.fromObject( model ); // Assume object is a JavaBean
 
         if ( contentType == null ) contentType = ContentType.JSON;
         return this.createEntity( contentType, json.toString() );
     }
 
+    private HttpEntity jsonEntity( Object model, Object contentType ) {
+        JsonEntity entity = new JsonEntity( model, charset );
+        if ( contentType != null ) entity.setContentType( contentType.toString() );
+        return entity;
+    }
+
+    /**
+     * <p>Encode a sequence of records as newline-delimited JSON, for bulk
+     * uploads.  Each element is converted to JSON as described in
+     * {@link #encodeJSON(Object, Object)} and written on its own line as the
+     * request is sent, so the model may be an <code>Iterator</code> that
+     * produces millions of records without holding them in memory:</p>
+     * <pre>
+     * http.post( path : '/_bulk', requestContentType : NDJSON,
+     *         body : records.iterator() )
+     * </pre>
+     * @param model an Iterator, Iterable, array or Java 8 <code>Stream</code>
+     * @param contentType content-type header, or <code>null</code> for
+     *  {@link ContentType#NDJSON}.
+     * @return a {@link NdjsonEntity} that writes the model.
+     */
+    public HttpEntity encodeNDJSON( Object model, Object contentType ) {
+        NdjsonEntity entity = new NdjsonEntity( model, charset );
+        if ( contentType != null ) entity.setContentType( contentType.toString() );
+        return entity;
+    }
+
+    /**
+     * <p>Encode a map of form fields and file uploads as
+     * <code>multipart/form-data</code>.  Parts are written one after another
+     * as the request is sent (see {@link MultipartEntity}), so files and
+     * streams are not held in memory:</p>
+     * <pre>
+     * http.post( path : '/upload', requestContentType : MULTIPART,
+     *         body : [ title : 'Holiday', photo : new File( 'beach.jpg' ) ] )
+     * </pre>
+     * <p>Each map value is sent as a part named by its key:</p>
+     * <ul>
+     *   <li>A <code>File</code> or <code>java.nio.file.Path</code> is sent
+     *     with its file name, and a content-type guessed from that name.</li>
+     *   <li>Any other value accepted by
+     *     {@link #encodeStream(Object, Object)} (InputStream, byte[],
+     *     FileChannel, ByteBuffer, Closure...) is sent as
+     *     <code>application/octet-stream</code>.</li>
+     *   <li>An {@link HttpEntity} is sent with its own content-type.</li>
+     *   <li>A Map describes a single part with the keys <code>content</code>,
+     *     <code>filename</code> and <code>contentType</code>, e.g.
+     *     <code>[ content : stream, filename : 'data.csv',
+     *     contentType : 'text/csv' ]</code>.</li>
+     *   <li>A List adds one part for each of its elements.</li>
+     *   <li>Anything else is sent as a text field, using its
+     *     <code>toString()</code> value.  <code>null</code> is sent as an
+     *     empty field.</li>
+     * </ul>
+     * <p>The request has an exact <code>Content-Length</code> if the length of
+     * every part is known, and is sent chunked otherwise.</p>
+     * @param model a Map of field names to values, or a {@link MultipartEntity}
+     * @param contentType content-type header, or <code>null</code> for
+     *  {@link ContentType#MULTIPART}.  The boundary parameter is added to it.
+     * @return a {@link MultipartEntity}
+     * @throws IOException if the size of a FileChannel cannot be read
+     */
+    public HttpEntity encodeMultipart( Object model, Object contentType )
+            throws IOException {
+        MultipartEntity entity;
+        if ( model instanceof MultipartEntity ) entity = (MultipartEntity)model;
+        else if ( model instanceof Map<?,?> ) {
+            entity = new MultipartEntity( charset );
+            for ( Map.Entry<?,?> field : ((Map<?,?>)model).entrySet() ) {
+                Object val = field.getValue();
+                if ( val instanceof List<?> )
+                    for ( Object subVal : (List<?>)val )
+                        addPart( entity, field.getKey().toString(), subVal );
+                else addPart( entity, field.getKey().toString(), val );
+            }
+        }
+        else throw new IllegalArgumentException(
+                "Multipart body must be a Map of fields: " + model );
+
+        if ( contentType != null && ! ContentType.MULTIPART.toString().equals( contentType.toString() ) )
+            entity.setContentType( contentType + "; boundary=" + entity.getBoundary() );
+        return entity;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addPart( MultipartEntity entity, String name, Object val ) throws IOException {
+        String filename = null;
+        Object contentType = null;
+        if ( val instanceof Map<?,?> ) {
+            Map<String,?> args = new HashMap<String,Object>( (Map<String,?>)val );
+            val = args.remove( "content" );
+            Object fn = args.remove( "filename" );
+            if ( fn != null ) filename = fn.toString();
+            contentType = args.remove( "contentType" );
+            if ( args.size() > 0 ) throw new IllegalArgumentException(
+                    "Unexpected keyword args: " + args );
+            if ( val == null ) throw new IllegalArgumentException(
+                    "Part '" + name + "' has no content" );
+        }
+
+        if ( val instanceof File || FileTransfer.isPath( val ) ) {
+            File file = FileTransfer.toFile( val );
+            if ( filename == null ) filename = file.getName();
+            if ( contentType == null ) contentType = URLConnection.guessContentTypeFromName( filename );
+        }
+
+        HttpEntity body;
+        if ( val instanceof HttpEntity ) {
+            body = (HttpEntity)val;
+            if ( contentType != null && body instanceof AbstractHttpEntity )
+                ((AbstractHttpEntity)body).setContentType( contentType.toString() );
+        }
+        else if ( val == null || ( contentType == null && filename == null && ! isBinary( val ) ) ) {
+            entity.addField( name, val == null ? null : val.toString() );
+            return;
+        }
+        else if ( val instanceof String || val instanceof GString )
+            body = createEntity( contentType != null ? contentType : ContentType.TEXT, val.toString() );
+        else body = encodeStream( val, contentType );
+        entity.addPart( name, filename, body );
+    }
+
+    /* true for values that encodeStream accepts */
+    private boolean isBinary( Object val ) {
+        return val instanceof InputStream || val instanceof byte[]
+            || val instanceof ByteArrayOutputStream || val instanceof File
+            || FileTransfer.isPath( val ) || val instanceof FileChannel
+            || val instanceof ByteBuffer || val instanceof Closure;
+    }
+
     /**
      * Helper method used by encoder methods to create an {@link HttpEntity}
      * instance that encapsulates the request data.  This may be used by any
@@ -359,6 +602,9 @@ public class EncoderRegistry implements Iterable<Map.Entry<String,Closure>> {
         for ( String ct : ContentType.JSON.getContentTypeStrings() )
             encoders.put( ct, encClosure );
 
+        encoders.put( ContentType.NDJSON.toString(), new MethodClosure( this, "encodeNDJSON" ) );
+        encoders.put( ContentType.MULTIPART.toString(), new MethodClosure( this, "encodeMultipart" ) );
+
         return encoders;
     }
 
@@ -372,6 +618,18 @@ public class EncoderRegistry implements Iterable<Map.Entry<String,Closure>> {
      *   or null.
      */
     public Closure getAt( Object contentType ) {
+        return toClosure( this.getEncoder( contentType ) );
+    }
+
+    /**
+     * Retrieve a encoder for the given content-type.  This is the same as
+     * {@link #getAt(Object)} but returns the encoder without wrapping it in
+     * a closure.
+     * @param contentType
+     * @return encoder that can interpret the given content type,
+     *   or null.
+     */
+    public RequestEncoder getEncoder( Object contentType ) {
         String ct = contentType.toString();
         int idx = ct.indexOf( ';' );
         if ( idx > 0 ) ct = ct.substring( 0, idx );
@@ -389,11 +647,22 @@ public class EncoderRegistry implements Iterable<Map.Entry<String,Closure>> {
      * @param closure
      */
     public void putAt( Object contentType, Closure value ) {
+        this.putEncoder( contentType, adapt( value ) );
+    }
+
+    /**
+     * Register a new encoder for the given content type.  If any encoder
+     * previously existed for that content type it will be replaced.
+     * @param contentType either a {@link ContentType} or a
+     *   <code>content-type</code> string
+     * @param encoder
+     */
+    public void putEncoder( Object contentType, RequestEncoder encoder ) {
         if ( contentType instanceof ContentType ) {
             for ( String ct : ((ContentType)contentType).getContentTypeStrings() )
-                this.registeredEncoders.put( ct, value );
+                this.registeredEncoders.put( ct, encoder );
         }
-        else this.registeredEncoders.put( contentType.toString(), value );
+        else this.registeredEncoders.put( contentType.toString(), encoder );
     }
 
     /**
@@ -419,6 +688,118 @@ public class EncoderRegistry implements Iterable<Map.Entry<String,Closure>> {
      * @return
      */
     public Iterator<Map.Entry<String,Closure>> iterator() {
-        return this.registeredEncoders.entrySet().iterator();
+        Map<String,Closure> closures = new LinkedHashMap<String,Closure>();
+        for ( Map.Entry<String,RequestEncoder> entry : registeredEncoders.entrySet() )
+            closures.put( entry.getKey(), toClosure( entry.getValue() ) );
+        return closures.entrySet().iterator();
+    }
+
+    private Map<String,RequestEncoder> adapt( Map<String,Closure> closures ) {
+        Map<String,RequestEncoder> encoders = new HashMap<String,RequestEncoder>();
+        for ( Map.Entry<String,Closure> entry : closures.entrySet() )
+            encoders.put( entry.getKey(), adapt( entry.getValue() ) );
+        return encoders;
+    }
+
+    /**
+     * Adapt an encoder closure to the {@link RequestEncoder} interface.  Method
+     * closures for this class' own <code>encode...</code> methods (as created
+     * by {@link #buildDefaultEncoderMap()}) are replaced by an encoder which
+     * calls the method directly.
+     * @param closure encoder closure, or <code>null</code>
+     * @return the adapted encoder, or <code>null</code>
+     */
+    protected RequestEncoder adapt( Closure closure ) {
+        if ( closure == null ) return null;
+        if ( closure instanceof MethodClosure && closure.getOwner() == this ) {
+            RequestEncoder encoder = builtIn( ((MethodClosure)closure).getMethod(), closure );
+            if ( encoder != null ) return encoder;
+        }
+        return new ClosureEncoder( closure );
+    }
+
+    private Closure toClosure( RequestEncoder encoder ) {
+        if ( encoder == null ) return null;
+        if ( encoder instanceof ClosureEncoder ) return ((ClosureEncoder)encoder).getClosure();
+        if ( encoder instanceof BuiltInEncoder ) return ((BuiltInEncoder)encoder).closure;
+        return new MethodClosure( encoder, "encode" );
+    }
+
+    /* Returns an encoder which calls one of this class' encode methods without
+       going through the closure, or null if the method is not one of them. */
+    private RequestEncoder builtIn( String method, Closure closure ) {
+        if ( "encodeStream".equals( method ) ) return new BuiltInEncoder( closure ) {
+            public HttpEntity encode( Object body, Object contentType ) throws IOException {
+                return encodeStream( body, contentType );
+            }
+        };
+        if ( "encodeText".equals( method ) ) return new BuiltInEncoder( closure ) {
+            public HttpEntity encode( Object body, Object contentType ) throws IOException {
+                return encodeText( body, contentType );
+            }
+        };
+        if ( "encodeForm".equals( method ) ) return new BuiltInEncoder( closure ) {
+            public HttpEntity encode( Object body, Object contentType ) throws IOException {
+                return body instanceof Map<?,?>
+                    ? encodeForm( (Map<?,?>)body, contentType )
+                    : encodeForm( body.toString(), contentType );
+            }
+        };
+        if ( "encodeXML".equals( method ) ) return new BuiltInEncoder( closure ) {
+            public HttpEntity encode( Object body, Object contentType ) throws IOException {
+                return encodeXML( body, contentType );
+            }
+        };
+        if ( "encodeJSON".equals( method ) ) return new BuiltInEncoder( closure ) {
+            public HttpEntity encode( Object body, Object contentType ) throws IOException {
+                return encodeJSON( body, contentType );
+            }
+        };
+        if ( "encodeNDJSON".equals( method ) ) return new BuiltInEncoder( closure ) {
+            public HttpEntity encode( Object body, Object contentType ) throws IOException {
+                return encodeNDJSON( body, contentType );
+            }
+        };
+        if ( "encodeMultipart".equals( method ) ) return new BuiltInEncoder( closure ) {
+            public HttpEntity encode( Object body, Object contentType ) throws IOException {
+                return encodeMultipart( body, contentType );
+            }
+        };
+        return null;
+    }
+
+    /* Keeps the method closure it replaces, for getAt() and iterator() */
+    private static abstract class BuiltInEncoder implements RequestEncoder {
+        final Closure closure;
+
+        BuiltInEncoder( Closure closure ) {
+            this.closure = closure;
+        }
+    }
+
+    /**
+     * Adapts an encoder closure to the {@link RequestEncoder} interface.  The
+     * closure may accept either the request body, or the body and the request
+     * content-type.
+     */
+    public static class ClosureEncoder implements RequestEncoder {
+        private final Closure closure;
+        private final boolean passContentType;
+
+        public ClosureEncoder( Closure closure ) {
+            if ( closure == null ) throw new IllegalArgumentException( "closure may not be null" );
+            this.closure = closure;
+            this.passContentType = closure.getMaximumNumberOfParameters() == 2;
+        }
+
+        public HttpEntity encode( Object body, Object contentType ) {
+            return (HttpEntity)( passContentType
+                    ? closure.call( new Object[] { body, contentType } )
+                    : closure.call( body ) );
+        }
+
+        public Closure getClosure() {
+            return closure;
+        }
     }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * <p>Request entity which sends a file, or a region of a {@link FileChannel},
+ * with an exact <code>Content-Length</code>.</p>
+ *
+ * <p>Only a non-blocking {@link AsyncHTTPBuilder} sends the file without
+ * copying it: the content is transferred from the channel to the socket.
+ * Any other client calls {@link #writeTo(OutputStream)}, which uses
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} to a
+ * channel wrapping the connection's output stream.  That copies the content
+ * through a small heap buffer, a block at a time, so the whole file is still
+ * never held in memory.</p>
+ *
+ * <p>Reads are positional, so the position of a channel passed to this
+ * entity is not changed and the entity is repeatable.  A channel passed to
+ * this entity is not closed by it; a file is opened each time the entity is
+ * written and closed afterwards.</p>
+ *
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class FileChannelEntity extends AbstractHttpEntity {
+
+    private final File file;
+    private final FileChannel channel;
+    private final long position;
+    private final long length;
+
+    /**
+     * Send the entire content of the given file.
+     * @param file
+     */
+    public FileChannelEntity( File file ) {
+        if ( file == null ) throw new IllegalArgumentException( "file may not be null" );
+        if ( ! file.isFile() ) throw new IllegalArgumentException( "Not a file: " + file );
+        this.file = file;
+        this.channel = null;
+        this.position = 0;
+        this.length = file.length();
+    }
+
+    /**
+     * Send the content of the channel from its current position to the end.
+     * @param channel
+     * @throws IOException if the channel's position or size cannot be read
+     */
+    public FileChannelEntity( FileChannel channel ) throws IOException {
+        this( channel, channel.position(), channel.size() - channel.position() );
+    }
+
+    /**
+     * Send <code>length</code> bytes of the channel starting at
+     * <code>position</code>.
+     * @param channel
+     * @param position
+     * @param length
+     */
+    public FileChannelEntity( FileChannel channel, long position, long length ) {
+        if ( channel == null ) throw new IllegalArgumentException( "channel may not be null" );
+        if ( position < 0 || length < 0 ) throw new IllegalArgumentException(
+                "Invalid region: position " + position + ", length " + length );
+        this.file = null;
+        this.channel = channel;
+        this.position = position;
+        this.length = length;
+    }
+
+    /** @return the file being sent, or null if this entity wraps a channel. */
+    public File getFile() {
+        return this.file;
+    }
+
+    /** @return offset of the first byte sent */
+    public long getPosition() {
+        return this.position;
+    }
+
+    public long getContentLength() {
+        return this.length;
+    }
+
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Open the channel to read from.  Channels opened here must be released
+     * with {@link #release(FileChannel)}.
+     */
+    FileChannel openChannel() throws IOException {
+        if ( this.channel != null ) return this.channel;
+        return new FileInputStream( this.file ).getChannel();
+    }
+
+    void release( FileChannel ch ) throws IOException {
+        if ( ch != this.channel ) ch.close();
+    }
+
+    public InputStream getContent() throws IOException {
+        final FileChannel ch = openChannel();
+        return new InputStream() {
+            long pos = position;
+            final long end = position + length;
+
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read( b, 0, 1 ) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            public int read( byte[] b, int off, int len ) throws IOException {
+                if ( pos >= end ) return -1;
+                len = (int)Math.min( len, end - pos );
+                int n = ch.read( ByteBuffer.wrap( b, off, len ), pos );
+                if ( n > 0 ) pos += n;
+                return n;
+            }
+
+            public void close() throws IOException {
+                release( ch );
+            }
+        };
+    }
+
+    public void writeTo( OutputStream out ) throws IOException {
+        if ( out == null ) throw new IllegalArgumentException( "Output stream may not be null" );
+        FileChannel ch = openChannel();
+        try {
+            // not closed, since that would close the output stream:
+            WritableByteChannel target = Channels.newChannel( out );
+            long pos = this.position;
+            long end = this.position + this.length;
+            while ( pos < end ) {
+                long n = ch.transferTo( pos, end - pos, target );
+                if ( n <= 0 && pos >= ch.size() ) throw new IOException(
+                        "File ended after " + ( pos - this.position ) + " of "
+                        + this.length + " bytes" );
+                pos += n;
+            }
+            out.flush();
+        }
+        finally { release( ch ); }
+    }
+}
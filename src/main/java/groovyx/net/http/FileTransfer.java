@@ -0,0 +1,181 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+
+/**
+ * Writes response content to a file.  Content is read into a single direct
+ * buffer and written straight to a {@link FileChannel}, so it never
+ * accumulates on the heap no matter how large the download.
+ *
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+class FileTransfer {
+
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final Class<?> PATH_CLASS;
+    static {
+        Class<?> pathClass = null;
+        try { pathClass = Class.forName( "java.nio.file.Path" ); }
+        catch ( ClassNotFoundException ex ) { /* Java 6 or earlier */ }
+        PATH_CLASS = pathClass;
+    }
+
+    private FileTransfer() {}
+
+    /**
+     * Notified after each write during a {@link FileTransfer#transfer transfer}.
+     */
+    interface Progress {
+        void written( long bytes );
+    }
+
+    /** @return true if the argument is a <code>java.nio.file.Path</code> */
+    static boolean isPath( Object target ) {
+        return PATH_CLASS != null && PATH_CLASS.isInstance( target );
+    }
+
+    /**
+     * Convert a download target to a file.
+     * @param target a <code>File</code>, <code>java.nio.file.Path</code>,
+     *  or an object whose <code>toString()</code> is a file path.
+     */
+    static File toFile( Object target ) {
+        if ( target == null ) throw new IllegalArgumentException( "target may not be null" );
+        if ( target instanceof File ) return (File)target;
+        if ( isPath( target ) ) {
+            try {
+                return (File)PATH_CLASS.getMethod( "toFile" ).invoke( target );
+            }
+            catch ( Exception ex ) {
+                throw new IllegalArgumentException( "Cannot convert " + target + " to a file", ex );
+            }
+        }
+        return new File( target.toString() );
+    }
+
+    /**
+     * Open a file for writing, without truncating it.
+     */
+    static FileChannel openChannel( File file ) throws IOException {
+        return new RandomAccessFile( file, "rw" ).getChannel();
+    }
+
+    /**
+     * Write the entire stream to the channel starting at the given position,
+     * and close the stream.  The channel's own position is not changed.
+     * @return number of bytes written
+     */
+    static long transfer( InputStream in, FileChannel out, long position ) throws IOException {
+        return transfer( in, out, position, null );
+    }
+
+    /**
+     * Write the entire stream to the channel starting at the given position,
+     * and close the stream.  The given listener is notified after every
+     * write, so a caller knows how many bytes reached the file if the
+     * stream fails part way through.
+     * @return number of bytes written
+     */
+    static long transfer( InputStream in, FileChannel out, long position,
+            Progress progress ) throws IOException {
+        ReadableByteChannel src = Channels.newChannel( in );
+        ByteBuffer buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+        long written = 0;
+        try {
+            while ( src.read( buffer ) >= 0 ) {
+                buffer.flip();
+                while ( buffer.hasRemaining() ) {
+                    int count = out.write( buffer, position + written );
+                    written += count;
+                    if ( progress != null ) progress.written( count );
+                }
+                buffer.clear();
+            }
+        }
+        finally { src.close(); }
+        return written;
+    }
+
+    /**
+     * Save the stream to the given target.  If the target is a
+     * <code>FileChannel</code>, content is written at its current position,
+     * which is then advanced; the channel is not closed.  Otherwise the
+     * target is converted to a file via {@link #toFile(Object)} which is
+     * replaced with the content.
+     * @return the channel or file that was written to.
+     */
+    static Object save( InputStream in, Object target ) throws IOException {
+        if ( target instanceof FileChannel ) {
+            FileChannel channel = (FileChannel)target;
+            long start = channel.position();
+            channel.position( start + transfer( in, channel, start ) );
+            return channel;
+        }
+        File file = toFile( target );
+        FileChannel channel = openChannel( file );
+        try {
+            channel.truncate( transfer( in, channel, 0 ) );
+        }
+        finally { channel.close(); }
+        return file;
+    }
+
+    /**
+     * Get a validator from the response that may be sent as
+     * <code>If-Range</code>, which requires a strong validator: either the
+     * <code>ETag</code> if it is not weak, or <code>Last-Modified</code>.
+     * @return the validator, or <code>null</code> if the response has none.
+     */
+    static String getValidator( HttpResponse resp ) {
+        Header h = resp.getFirstHeader( "ETag" );
+        if ( h != null && ! h.getValue().startsWith( "W/" ) ) return h.getValue();
+        h = resp.getFirstHeader( "Last-Modified" );
+        return h != null ? h.getValue() : null;
+    }
+
+    /**
+     * Add the builder's default headers to a request made directly through
+     * its client.
+     */
+    static void addHeaders( HTTPBuilder builder, HttpRequest request ) {
+        if ( builder == null ) return;
+        for ( Map.Entry<?,?> header : builder.getHeaders().entrySet() )
+            if ( header.getValue() != null ) request.setHeader(
+                    header.getKey().toString(), header.getValue().toString() );
+    }
+}
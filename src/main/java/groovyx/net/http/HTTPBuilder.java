@@ -25,16 +25,14 @@ import static groovyx.net.http.URIBuilder.convertToURI;
 import groovy.lang.Closure;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java.io.StringReader;
-import java.io.StringWriter;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
@@ -42,7 +40,10 @@ import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -50,9 +51,10 @@ import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
@@ -69,7 +71,6 @@ import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HttpContext;
-import org.codehaus.groovy.runtime.DefaultGroovyMethods;
 import org.codehaus.groovy.runtime.MethodClosure;
 
 /** <p>
@@ -176,6 +177,7 @@ import org.codehaus.groovy.runtime.MethodClosure;
 public class HTTPBuilder {
 
     private HttpClient client;
+    protected ConnectionPool connectionPool = null;
     protected URIBuilder defaultURI = null;
     protected AuthConfig auth = new AuthConfig( this );
 
@@ -184,11 +186,15 @@ public class HTTPBuilder {
     protected Object defaultContentType = ContentType.ANY;
     protected Object defaultRequestContentType = null;
     protected boolean autoAcceptHeader = true;
+    protected boolean streamingResponses = false;
+    protected boolean lazyParsing = false;
+    protected long spillThreshold = 0;
     protected final Map<Object,Closure> defaultResponseHandlers =
-        new StringHashMap<Closure>( buildDefaultResponseHandlers() );
+        new CopyOnWriteMap<Closure>( new ResponseHandlerMap( buildDefaultResponseHandlers() ) );
     protected ContentEncodingRegistry contentEncodingHandler = new ContentEncodingRegistry();
 
-    protected final Map<Object,Object> defaultRequestHeaders = new StringHashMap<Object>();
+    protected final Map<Object,Object> defaultRequestHeaders =
+        new CopyOnWriteMap<Object>( new StringHashMap<Object>() );
 
     protected EncoderRegistry encoders = new EncoderRegistry();
     protected ParserRegistry parsers = new ParserRegistry();
@@ -439,6 +445,33 @@ public class HTTPBuilder {
      */
     protected Object doRequest( final RequestConfigDelegate delegate )
             throws ClientProtocolException, IOException {
+        final HttpRequestBase reqMethod = buildRequest( delegate );
+
+        /* Not using a ResponseHandler, since HttpClient would always consume
+           the entity afterwards, even for a streaming response. */
+        HttpResponse response = getClient().execute( reqMethod, delegate.getContext() );
+        boolean handled = false;
+        try {
+            Object result = handleResponse( response, delegate );
+            handled = true;
+            return result;
+        }
+        finally {
+            // don't return a connection in an unknown state to the pool
+            if ( ! handled ) reqMethod.abort();
+        }
+    }
+
+    /**
+     * Encode the request body and apply the URI, <code>Accept</code> header and
+     * any other request headers from the delegate to its request instance.
+     * This is called by {@link #doRequest(RequestConfigDelegate)} before the
+     * request is executed.
+     * @param delegate configuration for this request
+     * @return the request, ready to be executed
+     */
+    protected HttpRequestBase buildRequest( final RequestConfigDelegate delegate )
+            throws IOException {
         delegate.encodeBody();
         final HttpRequestBase reqMethod = delegate.getRequest();
 
@@ -458,61 +491,136 @@ public class HTTPBuilder {
         log.debug( reqMethod.getMethod() + " " + reqMethod.getURI() );
 
         // set any request headers from the delegate
-        Map<?,?> headers = delegate.getHeaders();
-        for ( Object key : headers.keySet() ) {
-            Object val = headers.get( key );
+        for ( Map.Entry<?,?> header : delegate.getHeaders().entrySet() ) {
+            Object key = header.getKey();
+            Object val = header.getValue();
             if ( key == null ) continue;
             if ( val == null ) reqMethod.removeHeaders( key.toString() );
             else reqMethod.setHeader( key.toString(), val.toString() );
         }
+        return reqMethod;
+    }
 
-        ResponseHandler<Object> responseHandler = new ResponseHandler<Object>() {
-            public Object handleResponse(HttpResponse response)
-                throws ClientProtocolException, IOException {
-                HttpResponseDecorator resp = new HttpResponseDecorator(
-                        response, delegate.getContext(), null );
+    /**
+     * Find the response handler for the response status code, parse the
+     * response data if the handler expects it, and call the handler.  The
+     * response entity is always consumed before this method returns.
+     * @param response the HTTP response
+     * @param delegate configuration for the request that produced this response
+     * @return whatever value was returned by the executed response handler.
+     * @throws ResponseParseException if the response data could not be parsed
+     * @throws IOException if the response entity could not be consumed
+     */
+    protected Object handleResponse( HttpResponse response, RequestConfigDelegate delegate )
+            throws ClientProtocolException, IOException {
+        HttpResponseDecorator resp = new HttpResponseDecorator(
+                response, delegate.getContext(), null );
+        Object parsedData = null;
+        Object returnVal = null;
+        try {
+            int status = resp.getStatusLine().getStatusCode();
+            Closure responseClosure = delegate.findResponseHandler( status );
+            log.debug( "Response code: " + status + "; found handler: " + responseClosure );
+
+            boolean lazy = this.lazyParsing && ! this.streamingResponses
+                && delegate.getSaveTo() == null && deferParsing( resp, delegate );
+
+            Object[] closureArgs = null;
+            switch ( responseClosure.getMaximumNumberOfParameters() ) {
+            case 1 :
+                closureArgs = new Object[] { resp };
+                break;
+            case 2 : // parse the response entity if the response handler expects it:
+                HttpEntity entity = resp.getEntity();
                 try {
-                    int status = resp.getStatusLine().getStatusCode();
-                    Closure responseClosure = delegate.findResponseHandler( status );
-                    log.debug( "Response code: " + status + "; found handler: " + responseClosure );
-
-                    Object[] closureArgs = null;
-                    switch ( responseClosure.getMaximumNumberOfParameters() ) {
-                    case 1 :
-                        closureArgs = new Object[] { resp };
-                        break;
-                    case 2 : // parse the response entity if the response handler expects it:
-                        HttpEntity entity = resp.getEntity();
-                        try {
-                            if ( entity == null || entity.getContentLength() == 0 )
-                                closureArgs = new Object[] { resp, null };
-                            else closureArgs = new Object[] { resp, parseResponse( resp, contentType ) };
-                        }
-                        catch ( Exception ex ) {
-                            Header h = entity.getContentType();
-                            String respContentType = h != null ? h.getValue() : null;
-                            log.warn( "Error parsing '" + respContentType + "' response", ex );
-                            throw new ResponseParseException( resp, ex );
-                        }
-                        break;
-                    default:
-                        throw new IllegalArgumentException(
-                                "Response closure must accept one or two parameters" );
+                    // an empty body still replaces the target's old content:
+                    if ( delegate.getSaveTo() != null && Status.SUCCESS.matches( status ) ) {
+                        parsedData = FileTransfer.save( entity != null ? entity.getContent()
+                                : new ByteArrayInputStream( new byte[0] ), delegate.getSaveTo() );
+                        closureArgs = new Object[] { resp, parsedData };
+                    }
+                    else if ( entity == null || entity.getContentLength() == 0 )
+                        closureArgs = new Object[] { resp, null };
+                    /* the default handlers leave lazily parsed data on the
+                       response, so it is only parsed if it is accessed. */
+                    else if ( lazy && responseClosure instanceof MethodClosure
+                            && ((MethodClosure)responseClosure).getOwner() == this )
+                        closureArgs = new Object[] { resp, null };
+                    else if ( lazy ) {
+                        parsedData = resp.parseData();
+                        closureArgs = new Object[] { resp, parsedData };
+                    }
+                    // e.g. an HTML error page is parsed by content-type instead:
+                    else if ( delegate.getParser() != null && Status.SUCCESS.matches( status ) ) {
+                        parsedData = delegate.getParser().parse( resp );
+                        closureArgs = new Object[] { resp, parsedData };
+                    }
+                    else {
+                        parsedData = parseResponse( resp, delegate.getContentType() );
+                        closureArgs = new Object[] { resp, parsedData };
                     }
-
-                    Object returnVal = responseClosure.call( closureArgs );
-                    log.trace( "response handler result: " + returnVal );
-
-                    return returnVal;
                 }
-                finally {
-                    HttpEntity entity = resp.getEntity();
-                    if ( entity != null ) entity.consumeContent();
+                catch ( Exception ex ) {
+                    Header h = entity != null ? entity.getContentType() : null;
+                    String respContentType = h != null ? h.getValue() : null;
+                    log.warn( "Error parsing '" + respContentType + "' response", ex );
+                    // parseResponse has already wrapped checked parser exceptions:
+                    throw ex instanceof ResponseParseException ? (ResponseParseException)ex
+                            : new ResponseParseException( resp, ex );
                 }
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Response closure must accept one or two parameters" );
             }
-        };
 
-        return getClient().execute(reqMethod, responseHandler, delegate.getContext());
+            returnVal = responseClosure.call( closureArgs );
+            log.trace( "response handler result: " + returnVal );
+
+            return returnVal;
+        }
+        finally {
+            HttpEntity entity = resp.getEntity();
+            /* In streaming mode, the connection is released once the caller
+               closes the response stream. */
+            boolean streaming = this.streamingResponses && parsedData instanceof Closeable
+                && ( returnVal == parsedData || ( returnVal instanceof HttpResponseDecorator
+                        && ((HttpResponseDecorator)returnVal).getData() == parsedData ) );
+            if ( entity != null && ! streaming ) entity.consumeContent();
+        }
+    }
+
+    /**
+     * Buffer the response entity so it can be read after the connection is
+     * released, and defer parsing it until
+     * {@link HttpResponseDecorator#getData()} is first called.
+     * @return <code>false</code> if the response has no content to parse, or
+     *  is larger than the {@link #setSpillThreshold(long) spill threshold}.
+     *  Such a response is parsed as usual, from the spilled content.
+     */
+    private boolean deferParsing( HttpResponseDecorator resp,
+            RequestConfigDelegate delegate ) throws IOException {
+        HttpEntity entity = resp.getEntity();
+        if ( entity == null || entity.getContentLength() == 0 ) return false;
+        if ( ! entity.isRepeatable() ) {
+            entity = ResponseBuffer.buffer( entity, spillThreshold );
+            resp.setEntity( entity );
+            /* a spilled entity can only be read once, and its temp file
+               must not outlive the response handler */
+            if ( ! entity.isRepeatable() ) return false;
+        }
+
+        // as when parsing eagerly, an error page is parsed by content-type:
+        final ResponseParser parser = Status.SUCCESS.matches(
+                resp.getStatusLine().getStatusCode() ) ? delegate.getParser() : null;
+        final Object contentType = delegate.getContentType();
+        resp.setDataParser( new ResponseParser() {
+            public Object parse( HttpResponse response ) throws Exception {
+                return parser != null ? parser.parse( response )
+                        : parseResponse( response, contentType );
+            }
+        });
+        return true;
     }
 
     /**
@@ -552,12 +660,19 @@ public class HTTPBuilder {
         }
 
         Object parsedData = null;
-        Closure parser = parsers.getAt( responseContentType );
+        ResponseParser parser = parsers.getParser( responseContentType );
         if ( parser == null ) log.warn( "No parser found for content-type: "
             + responseContentType );
         else {
             log.debug( "Parsing response as: " + responseContentType );
-            parsedData = parser.call( resp );
+            try {
+                parsedData = parser.parse( resp );
+            }
+            catch ( RuntimeException ex ) { throw ex; }
+            catch ( Exception ex ) {
+                throw new ResponseParseException( resp instanceof HttpResponseDecorator
+                        ? (HttpResponseDecorator)resp : new HttpResponseDecorator( resp, null ), ex );
+            }
             if ( parsedData == null ) log.warn( "Parser returned null!" );
             else log.debug( "Parsed data to instance of: " + parsedData.getClass() );
         }
@@ -605,6 +720,11 @@ public class HTTPBuilder {
      * Therefore, it is recommended that request method variants be used which
      * explicitly accept a response handler closure in these cases.</p>
      *
+     * <p>Alternatively, large responses may be returned without buffering by
+     * enabling {@link #setStreamingResponses(boolean) streaming responses}, or
+     * buffered to a temporary file rather than memory by setting a
+     * {@link #setSpillThreshold(long) spill threshold}.</p>
+     *
      * @param resp HTTP response
      * @param parsedData parsed data as resolved from this instance's {@link ParserRegistry}
      * @return the parsed data object (whatever the parser returns).
@@ -613,18 +733,19 @@ public class HTTPBuilder {
      */
     protected Object defaultSuccessHandler( HttpResponseDecorator resp, Object parsedData )
             throws ResponseParseException {
+        // lazily parsed data is read from the already-buffered response entity:
+        if ( ! resp.isDataParsed() ) return resp.parseData();
         try {
-            //If response is streaming, buffer it in a byte array:
-            if ( parsedData instanceof InputStream ) {
-                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                DefaultGroovyMethods.leftShift( buffer, (InputStream)parsedData );
-                parsedData = new ByteArrayInputStream( buffer.toByteArray() );
-            }
-            else if ( parsedData instanceof Reader ) {
-                StringWriter buffer = new StringWriter();
-                DefaultGroovyMethods.leftShift( buffer, (Reader)parsedData );
-                parsedData = new StringReader( buffer.toString() );
-            }
+            // returned as-is, and the connection is released when it is closed:
+            if ( this.streamingResponses && parsedData instanceof Closeable )
+                return parsedData;
+            // content was already written to a 'saveTo' channel:
+            if ( parsedData instanceof FileChannel ) return parsedData;
+            //If response is streaming, buffer it in memory or a temp file:
+            if ( parsedData instanceof InputStream )
+                parsedData = ResponseBuffer.buffer( (InputStream)parsedData, spillThreshold );
+            else if ( parsedData instanceof Reader )
+                parsedData = ResponseBuffer.buffer( (Reader)parsedData, spillThreshold );
             else if ( parsedData instanceof Closeable )
                 log.warn( "Parsed data is streaming, but will be accessible after " +
                         "the network connection is closed.  Use at your own risk!" );
@@ -765,6 +886,89 @@ public class HTTPBuilder {
         return this.autoAcceptHeader;
     }
 
+    /**
+     * <p>Return streaming response content (an <code>InputStream</code> or
+     * <code>Reader</code>, e.g. for {@link ContentType#BINARY BINARY} or
+     * {@link ContentType#TEXT TEXT} responses) from the default success
+     * handler without buffering it.  The same applies to a response handler
+     * closure which returns its parsed data argument unchanged.</p>
+     *
+     * <p>The connection is not released until the returned stream is read
+     * completely or closed, so the caller <strong>must</strong> close it,
+     * otherwise the connection pool will eventually be exhausted.</p>
+     *
+     * @param streaming <code>true</code> to return streaming content
+     *  without buffering.  Default is <code>false</code>.
+     */
+    public void setStreamingResponses( boolean streaming ) {
+        this.streamingResponses = streaming;
+    }
+
+    /**
+     * @return <code>true</code> if streaming response content is returned
+     *  without buffering.
+     * @see #setStreamingResponses(boolean)
+     */
+    public boolean isStreamingResponses() {
+        return this.streamingResponses;
+    }
+
+    /**
+     * <p>Defer parsing the response body until it is accessed.  When enabled,
+     * the response entity is buffered in memory, and the default response
+     * handlers do not parse it; {@link HttpResponseDecorator#getData()}
+     * parses it on first access instead.  So a {@link RESTClient} caller
+     * which only inspects the response status or headers never pays the
+     * parsing cost.  A response handler closure which accepts a parsed data
+     * argument still receives the parsed data.</p>
+     *
+     * <p>This has no effect if {@link #setStreamingResponses(boolean)
+     * streaming responses} are enabled, or if the response is saved to a
+     * file.  A response body larger than the
+     * {@link #setSpillThreshold(long) spill threshold} is not kept for later:
+     * it is spilled to a temporary file and parsed before the response
+     * handler is called, as if lazy parsing were off.</p>
+     *
+     * <p>A lazy parse error is thrown from
+     * {@link HttpResponseDecorator#getData()} as an
+     * <code>IllegalStateException</code>; see that method.</p>
+     * @param lazy <code>true</code> to parse response data on first access.
+     *  Default is <code>false</code>.
+     */
+    public void setLazyParsing( boolean lazy ) {
+        this.lazyParsing = lazy;
+    }
+
+    /**
+     * @return <code>true</code> if response data is parsed on first access.
+     * @see #setLazyParsing(boolean)
+     */
+    public boolean isLazyParsing() {
+        return this.lazyParsing;
+    }
+
+    /**
+     * Set the maximum size of streaming response content that the default
+     * success handler will buffer in memory.  Larger responses are buffered
+     * to a temporary file instead, which is deleted when the returned stream
+     * is closed.
+     * @param bytes max number of bytes to buffer in memory, or <code>0</code>
+     *  (the default) to always buffer in memory.
+     */
+    public void setSpillThreshold( long bytes ) {
+        if ( bytes < 0 ) throw new IllegalArgumentException( "spillThreshold may not be < 0" );
+        this.spillThreshold = bytes;
+    }
+
+    /**
+     * @return max number of bytes of streaming content to buffer in memory,
+     *  or <code>0</code> if there is no limit.
+     * @see #setSpillThreshold(long)
+     */
+    public long getSpillThreshold() {
+        return this.spillThreshold;
+    }
+
     /**
      * Set acceptable request and response content-encodings.
      * @see ContentEncodingRegistry
@@ -811,13 +1015,13 @@ public class HTTPBuilder {
      * @param headers map of header names & values.
      */
     public void setHeaders( Map<?,?> headers ) {
-        this.defaultRequestHeaders.clear();
-        if ( headers == null ) return;
-        for( Object key : headers.keySet() ) {
+        Map<Object,Object> newHeaders = new StringHashMap<Object>();
+        if ( headers != null ) for( Object key : headers.keySet() ) {
             Object val = headers.get( key );
             if ( val == null ) continue;
-            this.defaultRequestHeaders.put( key.toString(), val.toString() );
+            newHeaders.put( key.toString(), val.toString() );
         }
+        ((CopyOnWriteMap<Object>)this.defaultRequestHeaders).replaceWith( newHeaders );
     }
 
     /**
@@ -850,14 +1054,82 @@ public class HTTPBuilder {
 
     /**
      * Override this method in a subclass to customize creation of the
-     * HttpClient instance.
+     * HttpClient instance.  If a {@link #setConnectionPool(ConnectionPool)
+     * connection pool} is set, the client will use its connection manager.
      * @param params
      * @return
      */
     protected HttpClient createClient( HttpParams params ) {
+        if ( connectionPool != null )
+            return new DefaultHttpClient( connectionPool.getConnectionManager(), params );
         return new DefaultHttpClient(params);
     }
 
+    /**
+     * <p>Execute all requests from this instance using connections from the
+     * given pool.  By default, each HTTPBuilder uses a single connection
+     * which may not be used by multiple threads at once.  A pooled builder
+     * may be used from any number of threads, and the same pool may be shared
+     * by many builder instances so that persistent connections are re-used
+     * between them.</p>
+     *
+     * <p>This replaces the underlying {@link #getClient() HttpClient}.  Request
+     * and response interceptors (e.g. content-encoding and OAuth handlers),
+     * credentials and client parameters from the current client are carried
+     * over to the new one.</p>
+     *
+     * @param pool the pool to use, or <code>null</code> to go back to a
+     *  single, un-shared connection.
+     */
+    public void setConnectionPool( ConnectionPool pool ) {
+        HttpClient oldClient = this.client;
+        ConnectionPool oldPool = this.connectionPool;
+        this.connectionPool = pool;
+        if ( oldClient == null ) return;
+
+        HttpClient newClient = createClient( oldClient.getParams() );
+        if ( oldClient instanceof AbstractHttpClient
+                && newClient instanceof AbstractHttpClient ) {
+            AbstractHttpClient from = (AbstractHttpClient)oldClient;
+            AbstractHttpClient to = (AbstractHttpClient)newClient;
+            /* the new client already has its own instances of the standard
+               protocol interceptors; only copy the ones that were added. */
+            Set<Class<?>> builtIn = new HashSet<Class<?>>();
+            for ( int i = 0; i < to.getRequestInterceptorCount(); i++ )
+                builtIn.add( to.getRequestInterceptor( i ).getClass() );
+            for ( int i = 0; i < from.getRequestInterceptorCount(); i++ ) {
+                HttpRequestInterceptor interceptor = from.getRequestInterceptor( i );
+                if ( ! builtIn.contains( interceptor.getClass() ) )
+                    to.addRequestInterceptor( interceptor );
+            }
+            builtIn.clear();
+            for ( int i = 0; i < to.getResponseInterceptorCount(); i++ )
+                builtIn.add( to.getResponseInterceptor( i ).getClass() );
+            for ( int i = 0; i < from.getResponseInterceptorCount(); i++ ) {
+                HttpResponseInterceptor interceptor = from.getResponseInterceptor( i );
+                if ( ! builtIn.contains( interceptor.getClass() ) )
+                    to.addResponseInterceptor( interceptor );
+            }
+            to.setCredentialsProvider( from.getCredentialsProvider() );
+            to.setCookieStore( from.getCookieStore() );
+        }
+        this.client = newClient;
+        /* the old client's single connection is not shared, so release it.
+           A previous pool may still be used by other builders. */
+        ClientConnectionManager oldManager = oldClient.getConnectionManager();
+        if ( oldManager != newClient.getConnectionManager()
+                && ( oldPool == null || oldManager != oldPool.getConnectionManager() ) )
+            oldManager.shutdown();
+    }
+
+    /**
+     * @return the connection pool used by this instance, or <code>null</code>
+     * if requests use a single, un-shared connection.
+     */
+    public ConnectionPool getConnectionPool() {
+        return this.connectionPool;
+    }
+
     /**
      * Used to access the {@link AuthConfig} handler used to configure common
      * authentication mechanism.  Example:
@@ -943,11 +1215,16 @@ public class HTTPBuilder {
     }
 
     /**
-     * Release any system resources held by this instance.
+     * Release any system resources held by this instance.  If this instance
+     * uses a shared {@link #setConnectionPool(ConnectionPool) connection pool},
+     * the pool is left open; call {@link ConnectionPool#shutdown()} once it
+     * is no longer used by any builder.
      * @see ClientConnectionManager#shutdown()
      */
     public void shutdown() {
-        getClient().getConnectionManager().shutdown();
+        ClientConnectionManager cm = getClient().getConnectionManager();
+        if ( connectionPool != null && cm == connectionPool.getConnectionManager() ) return;
+        cm.shutdown();
     }
 
 
@@ -972,11 +1249,13 @@ public class HTTPBuilder {
         private HttpRequestBase request;
         private Object contentType;
         private Object requestContentType;
-        private Map<Object,Closure> responseHandlers = new StringHashMap<Closure>();
+        private ResponseHandlerMap.Layered responseHandlers;
         private URIBuilder uri;
-        private Map<Object,Object> headers = new StringHashMap<Object>();
+        private Map<Object,Object> headers;
         private HttpContextDecorator context = new HttpContextDecorator();
         private Object body;
+        private Object saveTo;
+        private ResponseParser parser;
 
         public RequestConfigDelegate( HttpRequestBase request, Object contentType,
                 Map<?,?> defaultRequestHeaders,
@@ -984,11 +1263,14 @@ public class HTTPBuilder {
             if ( request == null ) throw new IllegalArgumentException(
                     "Internal error - HttpRequest instance cannot be null" );
             this.request = request;
-            this.headers.putAll( defaultRequestHeaders );
+            // only per-request changes are stored; the defaults are shared
+            this.headers = new LayeredMap<Object>(
+                    CopyOnWriteMap.snapshotOf( defaultRequestHeaders ), new StringHashMap<Object>() );
             this.contentType = contentType;
             if ( defaultRequestContentType != null )
                 this.requestContentType = defaultRequestContentType.toString();
-            this.responseHandlers.putAll( defaultResponseHandlers );
+            this.responseHandlers = new ResponseHandlerMap.Layered(
+                    ResponseHandlerMap.snapshotOf( defaultResponseHandlers ) );
             URI uri = request.getURI();
             if ( uri != null ) this.uri = new URIBuilder(uri);
         }
@@ -1122,6 +1404,13 @@ public class HTTPBuilder {
          *   <dt>requestContentType</dt><dd>content type for the request, if it
          *      is different from the expected response content-type</dd>
          *   <dt>body</dt><dd>Request body that will be encoded based on the given contentType</dd>
+         *   <dt>saveTo</dt><dd>File, path or <code>FileChannel</code> to write
+         *      a successful response to.  See {@link #setSaveTo(Object)}</dd>
+         *   <dt>parser</dt><dd>{@link ResponseParser} or closure used to parse
+         *      a successful response instead of the parser registered for its
+         *      content-type</dd>
+         *   <dt>projection</dt><dd>JSON paths to read from the response.
+         *      See {@link #setProjection(Object)}</dd>
          * </dl>
          * Note that if both <code>queryString</code> and <code>query</code> are given,
          * <code>query</code> will be merged with (and potentially override)
@@ -1165,6 +1454,15 @@ public class HTTPBuilder {
             Object body = args.remove("body");
             if ( body != null ) this.setBody( body );
 
+            Object saveTo = args.remove( "saveTo" );
+            if ( saveTo != null ) this.setSaveTo( saveTo );
+
+            Object parser = args.remove( "parser" );
+            if ( parser != null ) this.setParser( parser );
+
+            Object projection = args.remove( "projection" );
+            if ( projection != null ) this.setProjection( projection );
+
             if ( args.size() > 0 ) {
                 String invalidArgs = "";
                 for ( String k : args.keySet() ) invalidArgs += k + ",";
@@ -1250,7 +1548,109 @@ public class HTTPBuilder {
             this.body = body;
         }
 
-        public void encodeBody() {
+        /**
+         * <p>Write the content of a successful response directly to a file
+         * rather than parsing it.  Content is copied through a direct buffer
+         * into a <code>FileChannel</code>, so large downloads are never held
+         * in memory.  The target may be a <code>File</code>, a
+         * <code>java.nio.file.Path</code>, a file path string, or an open
+         * <code>FileChannel</code>:</p>
+         * <pre>
+         * File f = http.get( path : '/dist/big.zip', saveTo : 'big.zip' )
+         * </pre>
+         * <p>A file target is replaced with the response content, and the
+         * <code>File</code> is passed to the success handler as the parsed
+         * data.  Content is written to a channel target at its current
+         * position; the channel is passed to the success handler, and is
+         * not closed.</p>
+         * <p>Failure responses are parsed as usual, and nothing is written.
+         * The response is also not saved if the response handler does not
+         * accept a parsed data argument.</p>
+         * @param target where to write the response content.
+         */
+        public void setSaveTo( Object target ) {
+            if ( target != null && ! ( target instanceof FileChannel ) )
+                FileTransfer.toFile( target ); // validate
+            this.saveTo = target;
+        }
+
+        /**
+         * @return the download target given by {@link #setSaveTo(Object)},
+         * or <code>null</code> if the response should be parsed.
+         */
+        public Object getSaveTo() { return this.saveTo; }
+
+        /**
+         * Parse the response for this request with the given parser, rather
+         * than the parser {@link HTTPBuilder#getParser() registered} for the response
+         * content-type.  The parser is only used for a successful response;
+         * an error response (e.g. an HTML error page) is still parsed
+         * according to its content-type.  For example, to iterate over a
+         * large JSON array without reading it all into memory:
+         * <pre>
+         * http.request( GET ) {
+         *   parser = JsonIterator.parser( '$.items[*]' )
+         *   response.success = { resp, items -> items.each { ... } }
+         * }
+         * </pre>
+         * @param parser a {@link ResponseParser}, a closure which accepts an
+         *  <code>HttpResponse</code>, or <code>null</code> to use the
+         *  registered parser.
+         */
+        public void setParser( Object parser ) {
+            if ( parser == null || parser instanceof ResponseParser )
+                this.parser = (ResponseParser)parser;
+            else if ( parser instanceof Closure )
+                this.parser = new ParserRegistry.ClosureParser( (Closure)parser );
+            else throw new IllegalArgumentException(
+                    "parser must be a ResponseParser or closure: " + parser.getClass() );
+        }
+
+        /**
+         * @return the parser set for this request, or <code>null</code> if
+         * the response will be parsed according to its content-type.
+         */
+        public ResponseParser getParser() { return this.parser; }
+
+        /**
+         * <p>Read only the given fields from a JSON response.  Other parts of
+         * the document are skipped as it is parsed, so large responses can be
+         * handled without building a Map or List for every value:</p>
+         * <pre>
+         * def resp = rest.get( path : 'repos/jgritman/httpbuilder',
+         *         projection : [ '$.id', '$.owner.login', '$.license.name' ] )
+         * assert resp.data.owner.login == 'jgritman'
+         * </pre>
+         * <p>This replaces any {@link #setParser(Object) parser} set for the
+         * request.</p>
+         * @param paths a JSON path String, or a Collection or array of them.
+         * @see JsonIterator#project(Reader, String...)
+         */
+        public void setProjection( Object paths ) {
+            String[] array;
+            if ( paths instanceof Collection ) {
+                Collection<?> c = (Collection<?>)paths;
+                array = new String[c.size()];
+                int i = 0;
+                for ( Object path : c ) array[i++] = path.toString();
+            }
+            else if ( paths instanceof Object[] ) {
+                Object[] a = (Object[])paths;
+                array = new String[a.length];
+                for ( int i = 0; i < a.length; i++ ) array[i] = a[i].toString();
+            }
+            else array = new String[] { paths.toString() };
+            this.parser = JsonIterator.projection( array );
+        }
+
+        /**
+         * Encode the {@link #setBody(Object) body} with the encoder for the
+         * request content-type, and set it as the request entity.  Since
+         * 0.7.3 this declares <code>IOException</code>, which encoders may
+         * throw; Java code calling it must now handle that exception.
+         * @throws IOException if the body could not be encoded
+         */
+        public void encodeBody() throws IOException {
             if (body == null) {
                 return;
             }
@@ -1258,16 +1658,14 @@ public class HTTPBuilder {
                 throw new IllegalArgumentException(
                         "Cannot set a request body for a " + request.getMethod() + " method" );
 
-            Closure encoder = encoders.getAt( this.getRequestContentType() );
+            RequestEncoder encoder = encoders.getEncoder( this.getRequestContentType() );
 
             // Either content type or encoder is empty.
             if ( encoder == null )
                 throw new IllegalArgumentException(
                         "No encoder found for request content type " + getRequestContentType() );
 
-            HttpEntity entity = encoder.getMaximumNumberOfParameters() == 2
-                    ? (HttpEntity)encoder.call( new Object[] { body, this.getRequestContentType() } )
-                    : (HttpEntity)encoder.call( body );
+            HttpEntity entity = encoder.encode( body, this.getRequestContentType() );
 
             ((HttpEntityEnclosingRequest)this.request).setEntity( entity );
         }
@@ -1281,10 +1679,7 @@ public class HTTPBuilder {
          * @return the response handler
          */
         protected Closure findResponseHandler( int statusCode ) {
-            Closure handler = this.getResponse().get( Integer.toString( statusCode ) );
-            if ( handler == null ) handler =
-                this.getResponse().get( Status.find( statusCode ).toString() );
-            return handler;
+            return this.responseHandlers.find( statusCode );
         }
 
         /**
@@ -48,7 +48,10 @@ public class HttpResponseDecorator implements HttpResponse {
     HeadersDecorator headers = null;
     HttpResponse responseBase;
     HttpContextDecorator context;
-    Object responseData;
+    volatile Object responseData;
+    /* cleared after responseData is set, so a reader that sees null also
+       sees the parsed data */
+    volatile ResponseParser dataParser;
 
     public HttpResponseDecorator( HttpResponse base, Object parsedResponse ) {
         this( base, null, parsedResponse );
@@ -98,13 +101,68 @@ public class HttpResponseDecorator implements HttpResponse {
     }
 
     /**
-     * Return the parsed data from this response body.
+     * Return the parsed data from this response body.  If the response was
+     * handled with {@link HTTPBuilder#setLazyParsing(boolean) lazy parsing},
+     * the (buffered) response body is parsed by the first call to this method.
+     * Concurrent calls are safe; the body is only parsed once.
+     * <p>When the response is parsed eagerly, a parser error is thrown from
+     * the request method as a {@link ResponseParseException}.  When it is
+     * parsed lazily, the error is only found here, and since this method
+     * declares no checked exceptions it is thrown as an
+     * <code>IllegalStateException</code> whose cause is that
+     * <code>ResponseParseException</code>; the parser's own exception is
+     * the cause of the <code>ResponseParseException</code>.</p>
      * @return the parsed response object, or <code>null</code> if the response
      * does not contain any data.
+     * @throws IllegalStateException if lazily parsing the response data
+     *  failed.  The cause is a {@link ResponseParseException}.
      */
-    public Object getData() { return this.responseData; }
+    public Object getData() {
+        if ( this.dataParser == null ) return this.responseData;
+        try {
+            return parseData();
+        }
+        catch ( ResponseParseException ex ) {
+            throw new IllegalStateException( "Could not parse response data", ex );
+        }
+    }
+
+    void setData( Object responseData ) {
+        this.responseData = responseData;
+        this.dataParser = null;
+    }
+
+    /**
+     * Determine if the response data is available without parsing the
+     * response body.
+     * @return <code>false</code> if the response body will be parsed by
+     *  the next call to {@link #getData()}.
+     */
+    public boolean isDataParsed() { return this.dataParser == null; }
 
-    void setData( Object responseData ) { this.responseData = responseData; }
+    /**
+     * Defer parsing the response body until the data is first accessed.
+     * The response entity must be repeatable if the data may be accessed
+     * after the response has been consumed.
+     */
+    void setDataParser( ResponseParser parser ) {
+        this.responseData = null;
+        this.dataParser = parser;
+    }
+
+    /**
+     * Parse the response data if parsing was deferred, and keep the result
+     * for subsequent calls to {@link #getData()}.
+     */
+    synchronized Object parseData() throws ResponseParseException {
+        if ( this.dataParser == null ) return this.responseData;
+        try {
+            setData( this.dataParser.parse( this ) );
+        }
+        catch ( ResponseParseException ex ) { throw ex; }
+        catch ( Exception ex ) { throw new ResponseParseException( this, ex ); }
+        return this.responseData;
+    }
 
     /**
      * Get the execution context used during this request
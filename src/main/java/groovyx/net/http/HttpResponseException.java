@@ -41,6 +41,16 @@ public class HttpResponseException extends org.apache.http.client.HttpResponseEx
         this.response = resp;
     }
 
+    /**
+     * @param resp the unexpected response
+     * @param message why the response could not be handled
+     * @since 0.7.3
+     */
+    public HttpResponseException( HttpResponseDecorator resp, String message ) {
+        super( resp.getStatusLine().getStatusCode(), message );
+        this.response = resp;
+    }
+
     public HttpResponseDecorator getResponse() {
         return response;
     }
@@ -22,15 +22,11 @@
 
 package groovyx.net.http;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
-import java.io.StringReader;
-import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
@@ -89,6 +85,8 @@ public class HttpURLClient {
     private Object requestContentType = null;
     private URIBuilder defaultURL = null;
     private boolean followRedirects = true;
+    private boolean streamingResponses = false;
+    private long spillThreshold = 0;
     protected OAuthWrapper oauth;
 
     /** Logger instance defined for use by sub-classes */
@@ -204,20 +202,24 @@ public class HttpURLClient {
         arg = args.remove( "body" );
         if ( arg != null ) {  // if there is a request POST or PUT body
             conn.setDoOutput( true );
-            final HttpEntity body = (HttpEntity)encoderRegistry.getAt(
-                    requestContentType ).call( arg );
+            final HttpEntity body = encoderRegistry.getEncoder(
+                    requestContentType ).encode( arg, requestContentType );
             // TODO configurable request charset
 
             //TODO don't override if there is a 'content-type' in the headers list
             conn.addRequestProperty( "Content-Type", requestContentType );
-            try {
-                // OAuth Sign if necessary.
-                if ( oauth != null ) conn = oauth.sign( conn, body );
-                // send request data
-                DefaultGroovyMethods.leftShift( conn.getOutputStream(),
-                        body.getContent() );
-            }
-            finally { conn.getOutputStream().close(); }
+            /* write the body straight to the connection, rather than letting
+               the connection buffer all of it to find its length */
+            long length = body.getContentLength();
+            if ( length >= 0 && length <= Integer.MAX_VALUE )
+                conn.setFixedLengthStreamingMode( (int)length );
+            else conn.setChunkedStreamingMode( 0 );
+            // OAuth Sign if necessary.
+            if ( oauth != null ) conn = oauth.sign( conn, body );
+            // send request data
+            OutputStream out = conn.getOutputStream();
+            try { body.writeTo( out ); }
+            finally { out.close(); }
         }
         // sign the request if we're using OAuth
         else if ( oauth != null ) conn = oauth.sign(conn, null);
@@ -253,25 +255,24 @@ public class HttpURLClient {
     private Object getparsedResult( String method, Object contentType, HttpResponse response )
             throws ResponseParseException {
 
-        Object parsedData = method.equals( "HEAD" ) || method.equals( "OPTIONS" ) ?
-                null : parserRegistry.getAt( contentType ).call( response );
+        Object parsedData = null;
         try {
-            //If response is streaming, buffer it in a byte array:
-            if ( parsedData instanceof InputStream ) {
-                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                DefaultGroovyMethods.leftShift( buffer, (InputStream)parsedData );
-                parsedData = new ByteArrayInputStream( buffer.toByteArray() );
-            }
-            else if ( parsedData instanceof Reader ) {
-                StringWriter buffer = new StringWriter();
-                DefaultGroovyMethods.leftShift( buffer, (Reader)parsedData );
-                parsedData = new StringReader( buffer.toString() );
-            }
+            if ( ! method.equals( "HEAD" ) && ! method.equals( "OPTIONS" ) )
+                parsedData = parserRegistry.getParser( contentType ).parse( response );
+
+            if ( streamingResponses && parsedData instanceof Closeable )
+                return parsedData;
+            //If response is streaming, buffer it in memory or a temp file:
+            if ( parsedData instanceof InputStream )
+                parsedData = ResponseBuffer.buffer( (InputStream)parsedData, spillThreshold );
+            else if ( parsedData instanceof Reader )
+                parsedData = ResponseBuffer.buffer( (Reader)parsedData, spillThreshold );
             else if ( parsedData instanceof Closeable )
                 log.warn( "Parsed data is streaming, but cannot be buffered: " + parsedData.getClass() );
             return parsedData;
         }
-        catch ( IOException ex ) {
+        catch ( RuntimeException ex ) { throw ex; }
+        catch ( Exception ex ) {
             throw new ResponseParseException( new HttpResponseDecorator(response,null), ex );
         }
     }
@@ -539,6 +540,37 @@ public class HttpURLClient {
         public void setParams( HttpParams arg0 ) {}
     }
 
+    /**
+     * Return streaming response content (an <code>InputStream</code> or
+     * <code>Reader</code>) without buffering it.  The caller must close the
+     * returned stream.
+     * @see HTTPBuilder#setStreamingResponses(boolean)
+     * @param streaming default is <code>false</code>
+     */
+    public void setStreamingResponses( boolean streaming ) {
+        this.streamingResponses = streaming;
+    }
+
+    public boolean isStreamingResponses() {
+        return this.streamingResponses;
+    }
+
+    /**
+     * Set the maximum size of streaming response content to buffer in memory.
+     * Larger responses are buffered to a temporary file instead.
+     * @see HTTPBuilder#setSpillThreshold(long)
+     * @param bytes max number of bytes to buffer in memory, or <code>0</code>
+     *  (the default) for no limit.
+     */
+    public void setSpillThreshold( long bytes ) {
+        if ( bytes < 0 ) throw new IllegalArgumentException( "spillThreshold may not be < 0" );
+        this.spillThreshold = bytes;
+    }
+
+    public long getSpillThreshold() {
+        return this.spillThreshold;
+    }
+
     /**
      * Retrieve the default headers that will be sent in each request.  Note
      * that this is a 'live' map that can be directly manipulated to add or
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * <p>Request entity which writes its model as JSON directly to the
+ * connection, rather than building a JSON string first.  The model may be a
+ * Map, Collection, Iterable, Iterator, array or JavaBean, nested to any
+ * depth.</p>
+ *
+ * <p>A model of up to {@link #MAX_BUFFERED_SIZE} bytes is sent with an exact
+ * <code>Content-Length</code>.  A larger model, or one which is or contains
+ * an <code>Iterator</code> or <code>Stream</code>, is written as it is sent
+ * with chunked transfer-encoding, since its length is not known in advance.
+ * An entity whose model is an <code>Iterator</code> can only be written
+ * once.</p>
+ *
+ * <p>This is used by {@link EncoderRegistry#encodeJSON(Object, Object)}.</p>
+ *
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class JsonEntity extends AbstractHttpEntity {
+
+    /** Max size of a body which is sent with an exact Content-Length. */
+    public static final int MAX_BUFFERED_SIZE = 64 * 1024;
+
+    private final Object model;
+    private final Charset charset;
+    private byte[] content;
+    private boolean measured = false;
+    private boolean oneShotValues = true;
+
+    /**
+     * @param model data written as JSON
+     * @param charset character encoding of the request body
+     */
+    public JsonEntity( Object model, Charset charset ) {
+        if ( charset == null ) throw new IllegalArgumentException( "charset may not be null" );
+        this.model = model;
+        this.charset = charset;
+        setContentType( ContentType.JSON.toString() );
+    }
+
+    public Object getModel() {
+        return this.model;
+    }
+
+    public boolean isRepeatable() {
+        return ! ( model instanceof Iterator || JsonWriter.isStream( model ) );
+    }
+
+    /**
+     * @return the exact length if the model is small enough to be buffered,
+     *  otherwise <code>-1</code>.
+     */
+    public long getContentLength() {
+        byte[] buffered = buffer();
+        return buffered != null ? buffered.length : -1;
+    }
+
+    @Override public boolean isChunked() {
+        return getContentLength() < 0;
+    }
+
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Write the model to a buffer.  Note that this holds the entire
+     * document in memory; {@link #writeTo(OutputStream)} does not.
+     */
+    public InputStream getContent() throws IOException {
+        byte[] buffered = buffer();
+        if ( buffered != null ) return new ByteArrayInputStream( buffered );
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeTo( buffer );
+        return new ByteArrayInputStream( buffer.toByteArray() );
+    }
+
+    public void writeTo( OutputStream out ) throws IOException {
+        if ( out == null ) throw new IllegalArgumentException( "Output stream may not be null" );
+        byte[] buffered = buffer();
+        if ( buffered != null ) {
+            out.write( buffered );
+            return;
+        }
+        Writer writer = new BufferedWriter( new OutputStreamWriter( out, charset ) );
+        write( writer );
+        writer.flush();
+    }
+
+    /**
+     * Write the model as JSON text.  Subclasses should create the
+     * {@link JsonWriter} with {@link #newJsonWriter(Writer)}.
+     */
+    protected void write( Writer writer ) throws IOException {
+        newJsonWriter( writer ).write( model );
+    }
+
+    /*
+     * While the model is being measured, the writer does not read Iterators or
+     * Streams, which could not be written again.
+     */
+    JsonWriter newJsonWriter( Writer writer ) {
+        return new JsonWriter( writer, oneShotValues );
+    }
+
+    /*
+     * Write a repeatable model to memory, unless it is larger than
+     * MAX_BUFFERED_SIZE or contains an Iterator or Stream.
+     */
+    private byte[] buffer() {
+        if ( measured ) return content;
+        measured = true;
+        if ( ! isRepeatable() ) return null;
+        LimitedBuffer buffer = new LimitedBuffer( MAX_BUFFERED_SIZE );
+        oneShotValues = false;
+        try {
+            Writer writer = new BufferedWriter( new OutputStreamWriter( buffer, charset ) );
+            write( writer );
+            writer.flush();
+            content = buffer.toByteArray();
+        }
+        // send it chunked instead:
+        catch ( BufferFullException ex ) { /* too large */ }
+        catch ( JsonWriter.OneShotValueException ex ) { /* not repeatable */ }
+        catch ( IOException ex ) { /* not thrown by an in-memory buffer */ }
+        finally { oneShotValues = true; }
+        return content;
+    }
+
+    private static class LimitedBuffer extends ByteArrayOutputStream {
+        private final int limit;
+
+        LimitedBuffer( int limit ) { this.limit = limit; }
+
+        @Override public void write( int b ) {
+            if ( count >= limit ) throw new BufferFullException();
+            super.write( b );
+        }
+
+        @Override public void write( byte[] b, int off, int len ) {
+            if ( count + len > limit ) throw new BufferFullException();
+            super.write( b, off, len );
+        }
+    }
+
+    private static class BufferFullException extends RuntimeException {
+        private static final long serialVersionUID = -3512840916204118734L;
+    }
+}
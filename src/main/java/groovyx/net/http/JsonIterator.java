@@ -0,0 +1,410 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import groovy.json.JsonException;
+import groovy.json.JsonLexer;
+import groovy.json.JsonToken;
+import groovy.json.JsonTokenType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.http.HttpResponse;
+
+/**
+ * <p>Iterates over values selected from a JSON document by {@link JsonPath
+ * path expressions}, reading the document incrementally.  Each selected
+ * value is built (as Maps, Lists, Strings, Numbers and Booleans, like
+ * <code>JsonSlurper</code>) only when the iterator reaches it, and all other
+ * content is skipped token by token, so memory use depends on the size of
+ * one element rather than the whole document.</p>
+ *
+ * <p>Use {@link #parser(String...)} to stream a response from within a
+ * response handler:</p>
+ * <pre>
+ * http.get( path : '/export', parser : JsonIterator.parser( '$.items[*]' ) ) { resp, items ->
+ *     items.each { item -> println item.id }
+ * }
+ * </pre>
+ *
+ * <p>The underlying reader is closed once the last value has been read, or
+ * when {@link #close()} is called.</p>
+ *
+ * <p>To read just a few fields from a large document, use
+ * {@link #project(Reader, String...)} or its {@link #projection(String...)
+ * parser}, which gather the selected values into a single result.</p>
+ *
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class JsonIterator implements Iterator<Object>, Closeable {
+
+    private final Reader reader;
+    private final JsonLexer lexer;
+    private final JsonPath[] paths;
+    private final List<Frame> stack = new ArrayList<Frame>();
+    private boolean started = false;
+    private boolean closed = false;
+
+    private boolean ready = false;
+    private Object nextValue;
+    private List<Object> nextPath;
+    private List<Object> currentPath;
+
+    /**
+     * @param reader JSON document
+     * @param paths one or more path expressions, e.g. <code>$[*]</code> for
+     *  the elements of a top-level array.  A value is returned if it matches
+     *  any of them.
+     * @throws IllegalArgumentException if a path expression is not valid
+     */
+    public JsonIterator( Reader reader, String... paths ) {
+        if ( reader == null ) throw new IllegalArgumentException( "reader may not be null" );
+        if ( paths == null || paths.length < 1 )
+            throw new IllegalArgumentException( "At least one JSON path is required" );
+        this.paths = new JsonPath[paths.length];
+        for ( int i = 0; i < paths.length; i++ ) this.paths[i] = JsonPath.parse( paths[i] );
+        this.reader = reader;
+        this.lexer = new JsonLexer( reader );
+    }
+
+    /**
+     * Create a response parser which returns a <code>JsonIterator</code> over
+     * the response content.  Note that the iterator reads from the open
+     * connection, so it should be consumed from within a response handler,
+     * or with {@link HTTPBuilder#setStreamingResponses(boolean) streaming
+     * responses} enabled.
+     * @param paths path expressions passed to {@link #JsonIterator(Reader, String...)}
+     */
+    public static ResponseParser parser( final String... paths ) {
+        for ( String path : paths ) JsonPath.parse( path ); // fail early
+        return new ResponseParser() {
+            public Object parse( HttpResponse resp ) throws IOException {
+                return new JsonIterator( new InputStreamReader( resp.getEntity().getContent(),
+                        ParserRegistry.getCharset( resp ) ), paths );
+            }
+        };
+    }
+
+    /**
+     * Create a response parser which returns the
+     * {@link #project(Reader, String...) projection} of the response content
+     * for the given paths.
+     * @see HTTPBuilder.RequestConfigDelegate#setProjection(Object)
+     */
+    public static ResponseParser projection( final String... paths ) {
+        for ( String path : paths ) JsonPath.parse( path ); // fail early
+        return new ResponseParser() {
+            public Object parse( HttpResponse resp ) throws IOException {
+                return project( new InputStreamReader( resp.getEntity().getContent(),
+                        ParserRegistry.getCharset( resp ) ), paths );
+            }
+        };
+    }
+
+    /**
+     * <p>Read only the values selected by the given paths, and return them
+     * in the same structure as the original document.  Any part of the
+     * document that is not selected is skipped without being built, e.g.</p>
+     * <pre>
+     * JsonIterator.project( reader, '$.id', '$.owner.name', '$.items[*].id' )
+     * </pre>
+     * <p>might return
+     * <code>[id:7, owner:[name:'tom'], items:[[id:1], [id:2]]]</code>.
+     * Arrays in the result only contain elements that had a selected value,
+     * in document order.  The reader is closed before this method returns.</p>
+     * @return the selected values, an empty map if nothing was selected, or
+     *  the whole document if one of the paths is <code>$</code>.
+     * @throws JsonException if the document is not valid JSON, or could not
+     *  be read.
+     */
+    @SuppressWarnings("unchecked")
+    public static Object project( Reader reader, String... paths ) {
+        JsonIterator values = new JsonIterator( reader, paths );
+        try {
+            Object root = null;
+            // index of the last element added to each result array
+            Map<List<Object>,Object> lastIndex = new IdentityHashMap<List<Object>,Object>();
+            while ( values.hasNext() ) {
+                Object value = values.next();
+                List<Object> path = values.getPath();
+                if ( path.isEmpty() ) return value;
+                if ( root == null ) root = newContainer( path.get( 0 ) );
+
+                Object parent = root;
+                for ( int i = 0; i < path.size(); i++ ) {
+                    Object segment = path.get( i );
+                    boolean leaf = i == path.size() - 1;
+                    if ( parent instanceof Map ) {
+                        Map<Object,Object> map = (Map<Object,Object>)parent;
+                        if ( leaf ) { // the value may be null
+                            map.put( segment, value );
+                            break;
+                        }
+                        Object child = map.get( segment );
+                        if ( child == null ) {
+                            child = newContainer( path.get( i + 1 ) );
+                            map.put( segment, child );
+                        }
+                        parent = child;
+                    }
+                    else {
+                        List<Object> list = (List<Object>)parent;
+                        Object child = leaf || ! segment.equals( lastIndex.get( list ) )
+                            ? null : list.get( list.size() - 1 );
+                        if ( child == null ) {
+                            child = leaf ? value : newContainer( path.get( i + 1 ) );
+                            list.add( child );
+                            lastIndex.put( list, segment );
+                        }
+                        parent = child;
+                    }
+                }
+            }
+            return root != null ? root : new LinkedHashMap<String,Object>();
+        }
+        finally { values.close(); }
+    }
+
+    private static Object newContainer( Object childSegment ) {
+        return childSegment instanceof Integer
+            ? new ArrayList<Object>() : new LinkedHashMap<String,Object>();
+    }
+
+    /**
+     * @throws JsonException if the document is not valid JSON, or could not
+     *  be read.
+     */
+    public boolean hasNext() {
+        if ( ! ready && ! closed ) {
+            ready = advance();
+            if ( ! ready ) close();
+        }
+        return ready;
+    }
+
+    /**
+     * @throws JsonException if the document is not valid JSON, or could not
+     *  be read.
+     */
+    public Object next() {
+        if ( ! hasNext() ) throw new NoSuchElementException();
+        ready = false;
+        currentPath = nextPath;
+        Object value = nextValue;
+        nextValue = null;
+        return value;
+    }
+
+    /**
+     * @return the keys (Strings) and indices (Integers) leading from the
+     *  document root to the value last returned by {@link #next()}.
+     */
+    public List<Object> getPath() {
+        if ( currentPath == null ) throw new IllegalStateException( "next() has not been called" );
+        return currentPath;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop iterating and close the underlying reader.
+     */
+    public void close() {
+        if ( closed ) return;
+        closed = true;
+        ready = false;
+        try { reader.close(); }
+        catch ( IOException ex ) { /* nothing more will be read */ }
+    }
+
+    /**
+     * Read tokens until the next selected value.
+     * @return false if the end of the document was reached.
+     */
+    private boolean advance() {
+        if ( ! started ) {
+            started = true;
+            JsonToken token = lexer.nextToken();
+            if ( token == null ) return false;
+            boolean[] live = new boolean[paths.length];
+            Arrays.fill( live, true );
+            if ( select( token, live ) ) return true;
+        }
+        while ( ! stack.isEmpty() ) {
+            Frame frame = stack.get( stack.size() - 1 );
+            JsonToken token = nextToken();
+            if ( token.getType() == frame.close ) {
+                stack.remove( stack.size() - 1 );
+                continue;
+            }
+            if ( frame.count > 0 ) {
+                expect( token, JsonTokenType.COMMA );
+                token = nextToken();
+            }
+            if ( frame.close == JsonTokenType.CLOSE_BRACKET )
+                frame.segment = Integer.valueOf( frame.count );
+            else {
+                expect( token, JsonTokenType.STRING );
+                frame.segment = token.getValue();
+                expect( nextToken(), JsonTokenType.COLON );
+                token = nextToken();
+            }
+            frame.count++;
+
+            int depth = stack.size() - 1;
+            boolean[] live = new boolean[paths.length];
+            for ( int i = 0; i < paths.length; i++ )
+                live[i] = frame.live[i] && paths[i].matches( depth, frame.segment );
+            if ( select( token, live ) ) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Handle the value starting at the given token: read it if it is
+     * selected, descend into it if it contains a selected value, or skip it.
+     * @param live which paths match the path of this value so far
+     * @return true if the value was selected.
+     */
+    private boolean select( JsonToken token, boolean[] live ) {
+        int depth = stack.size();
+        boolean descend = false;
+        for ( int i = 0; i < paths.length; i++ ) {
+            if ( ! live[i] ) continue;
+            if ( paths[i].length() == depth ) {
+                List<Object> path = new ArrayList<Object>( depth );
+                for ( Frame f : stack ) path.add( f.segment );
+                this.nextPath = Collections.unmodifiableList( path );
+                this.nextValue = readValue( token );
+                return true;
+            }
+            descend = true;
+        }
+        JsonTokenType type = token.getType();
+        if ( descend && type == JsonTokenType.OPEN_CURLY )
+            stack.add( new Frame( JsonTokenType.CLOSE_CURLY, live ) );
+        else if ( descend && type == JsonTokenType.OPEN_BRACKET )
+            stack.add( new Frame( JsonTokenType.CLOSE_BRACKET, live ) );
+        else skipValue( token );
+        return false;
+    }
+
+    /**
+     * Build the value starting at the given token.
+     */
+    protected Object readValue( JsonToken token ) {
+        JsonTokenType type = token.getType();
+        if ( type == JsonTokenType.OPEN_CURLY ) {
+            Map<String,Object> map = new LinkedHashMap<String,Object>();
+            token = nextToken();
+            if ( token.getType() == JsonTokenType.CLOSE_CURLY ) return map;
+            while ( true ) {
+                expect( token, JsonTokenType.STRING );
+                String key = (String)token.getValue();
+                expect( nextToken(), JsonTokenType.COLON );
+                map.put( key, readValue( nextToken() ) );
+                token = nextToken();
+                if ( token.getType() == JsonTokenType.CLOSE_CURLY ) return map;
+                expect( token, JsonTokenType.COMMA );
+                token = nextToken();
+            }
+        }
+        if ( type == JsonTokenType.OPEN_BRACKET ) {
+            List<Object> list = new ArrayList<Object>();
+            token = nextToken();
+            if ( token.getType() == JsonTokenType.CLOSE_BRACKET ) return list;
+            while ( true ) {
+                list.add( readValue( token ) );
+                token = nextToken();
+                if ( token.getType() == JsonTokenType.CLOSE_BRACKET ) return list;
+                expect( token, JsonTokenType.COMMA );
+                token = nextToken();
+            }
+        }
+        if ( type == JsonTokenType.CLOSE_CURLY || type == JsonTokenType.CLOSE_BRACKET
+                || type == JsonTokenType.COMMA || type == JsonTokenType.COLON )
+            throw unexpected( token );
+        return token.getValue();
+    }
+
+    /**
+     * Skip past the value starting at the given token, without building it.
+     */
+    protected void skipValue( JsonToken token ) {
+        JsonTokenType type = token.getType();
+        if ( type != JsonTokenType.OPEN_CURLY && type != JsonTokenType.OPEN_BRACKET ) {
+            if ( type == JsonTokenType.CLOSE_CURLY || type == JsonTokenType.CLOSE_BRACKET
+                    || type == JsonTokenType.COMMA || type == JsonTokenType.COLON )
+                throw unexpected( token );
+            return;
+        }
+        int depth = 1;
+        while ( depth > 0 ) {
+            type = nextToken().getType();
+            if ( type == JsonTokenType.OPEN_CURLY || type == JsonTokenType.OPEN_BRACKET ) depth++;
+            else if ( type == JsonTokenType.CLOSE_CURLY || type == JsonTokenType.CLOSE_BRACKET ) depth--;
+        }
+    }
+
+    private JsonToken nextToken() {
+        JsonToken token = lexer.nextToken();
+        if ( token == null ) throw new JsonException( "Unexpected end of JSON document" );
+        return token;
+    }
+
+    private void expect( JsonToken token, JsonTokenType type ) {
+        if ( token.getType() != type ) throw unexpected( token );
+    }
+
+    private JsonException unexpected( JsonToken token ) {
+        return new JsonException( "Unexpected " + token.getType() + " '" + token.getText()
+                + "' on line " + token.getStartLine() + ", column " + token.getStartColumn() );
+    }
+
+    /** An object or array that contains a selected value */
+    private static class Frame {
+        final JsonTokenType close;
+        final boolean[] live;
+        Object segment;
+        int count = 0;
+
+        Frame( JsonTokenType close, boolean[] live ) {
+            this.close = close;
+            this.live = live;
+        }
+    }
+}
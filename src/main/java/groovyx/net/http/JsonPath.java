@@ -0,0 +1,123 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A simple JSON path expression, used to select values from a document as
+ * it is streamed.  Supported syntax is a subset of JSONPath: the root
+ * <code>$</code> followed by any number of <code>.name</code>,
+ * <code>['name']</code>, <code>[index]</code> or wildcard (<code>.*</code>
+ * or <code>[*]</code>) segments, e.g. <code>$.items[*].id</code>.
+ *
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+class JsonPath {
+
+    /** Segment that matches any object key or array index */
+    static final Object ANY = new Object() {
+        @Override public String toString() { return "*"; }
+    };
+
+    private final String expression;
+    /* each is a String key, Integer index, or ANY */
+    private final Object[] segments;
+
+    private JsonPath( String expression, Object[] segments ) {
+        this.expression = expression;
+        this.segments = segments;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the expression is not valid.
+     */
+    static JsonPath parse( String expression ) {
+        if ( expression == null ) throw new IllegalArgumentException( "path may not be null" );
+        String path = expression.trim();
+        if ( ! path.startsWith( "$" ) ) throw new IllegalArgumentException(
+                "JSON path must start with '$': " + expression );
+        List<Object> segments = new ArrayList<Object>();
+        int i = 1;
+        while ( i < path.length() ) {
+            char c = path.charAt( i );
+            if ( c == '.' ) {
+                int end = i + 1;
+                while ( end < path.length() && path.charAt( end ) != '.'
+                        && path.charAt( end ) != '[' ) end++;
+                String name = path.substring( i + 1, end );
+                if ( name.length() < 1 ) throw new IllegalArgumentException(
+                        "Empty name in JSON path: " + expression );
+                segments.add( "*".equals( name ) ? ANY : name );
+                i = end;
+            }
+            else if ( c == '[' ) {
+                int end = path.indexOf( ']', i );
+                if ( end < 0 ) throw new IllegalArgumentException(
+                        "Unclosed '[' in JSON path: " + expression );
+                String inner = path.substring( i + 1, end ).trim();
+                if ( "*".equals( inner ) ) segments.add( ANY );
+                else if ( inner.length() > 1 && ( inner.charAt( 0 ) == '\''
+                        || inner.charAt( 0 ) == '"' ) && inner.charAt( inner.length() - 1 ) == inner.charAt( 0 ) )
+                    segments.add( inner.substring( 1, inner.length() - 1 ) );
+                else {
+                    try { segments.add( Integer.valueOf( inner ) ); }
+                    catch ( NumberFormatException ex ) {
+                        throw new IllegalArgumentException(
+                                "Invalid index '" + inner + "' in JSON path: " + expression );
+                    }
+                }
+                i = end + 1;
+            }
+            else throw new IllegalArgumentException( "Unexpected '" + c
+                    + "' at position " + i + " of JSON path: " + expression );
+        }
+        return new JsonPath( expression, segments.toArray() );
+    }
+
+    /**
+     * @return the number of segments after the root.
+     */
+    int length() { return segments.length; }
+
+    /**
+     * @return the segment at the given position: a String key, Integer
+     * index or {@link #ANY}.
+     */
+    Object get( int depth ) { return segments[depth]; }
+
+    /**
+     * Test one key or index of a value's path against this expression.
+     * @param depth position of the segment, starting from <code>0</code> for
+     *  a child of the root.
+     * @param segment a String key or Integer index
+     */
+    boolean matches( int depth, Object segment ) {
+        if ( depth >= segments.length ) return false;
+        Object expected = segments[depth];
+        return expected == ANY || expected.equals( segment );
+    }
+
+    @Override public String toString() { return expression; }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.beans.BeanInfo;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.json.JSON;
+
+/**
+ * Writes an object graph as JSON text, one value at a time, without first
+ * building the whole document in memory.  Maps are written as JSON objects;
+ * Collections, Iterables, Iterators, Streams and arrays as JSON arrays; other
+ * <code>java.*</code> types (e.g. URI or Date) as strings; and any other
+ * object as a JSON object of its JavaBean properties.
+ *
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+class JsonWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final Class<?> STREAM_CLASS;
+    static {
+        Class<?> streamClass = null;
+        try { streamClass = Class.forName( "java.util.stream.BaseStream" ); }
+        catch ( ClassNotFoundException ex ) { /* Java 7 or earlier */ }
+        STREAM_CLASS = streamClass;
+    }
+
+    private final Writer out;
+    private final boolean oneShotValues;
+    /* containers currently being written, to detect cycles */
+    private final Map<Object,Object> parents = new IdentityHashMap<Object,Object>();
+
+    JsonWriter( Writer out ) {
+        this( out, true );
+    }
+
+    /**
+     * @param oneShotValues if <code>false</code>, a
+     *  {@link OneShotValueException} is thrown rather than reading any
+     *  Iterator or Stream, so the same object graph can be written again.
+     */
+    JsonWriter( Writer out, boolean oneShotValues ) {
+        this.out = out;
+        this.oneShotValues = oneShotValues;
+    }
+
+    /**
+     * Thrown instead of reading an Iterator or Stream, if one-shot values are
+     * not allowed.
+     */
+    static class OneShotValueException extends IOException {
+        private static final long serialVersionUID = 6015412583425761193L;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value (or any value it
+     *  contains) refers back to itself, or is a non-finite number.
+     */
+    void write( Object value ) throws IOException {
+        if ( value == null ) out.write( "null" );
+        else if ( value instanceof CharSequence || value instanceof Character
+                || value instanceof Enum ) writeString( value.toString() );
+        else if ( value instanceof Number ) writeNumber( (Number)value );
+        else if ( value instanceof Boolean ) out.write( value.toString() );
+        else if ( value instanceof Map ) writeMap( (Map<?,?>)value );
+        else if ( value instanceof Iterable ) writeArray( value, ((Iterable<?>)value).iterator() );
+        else if ( value instanceof Iterator ) writeArray( value, oneShot( (Iterator<?>)value ) );
+        else if ( value.getClass().isArray() ) writeArray( value );
+        else if ( isStream( value ) ) writeArray( value, oneShot( iterator( value ) ) );
+        else if ( value instanceof JSON ) out.write( value.toString() ); // i.e. JSONNull
+        else if ( isValueType( value.getClass() ) ) writeString( value.toString() );
+        else writeBean( value );
+    }
+
+    /**
+     * @return true if the value is a Java 8 <code>Stream</code>.
+     */
+    static boolean isStream( Object value ) {
+        return STREAM_CLASS != null && STREAM_CLASS.isInstance( value );
+    }
+
+    /**
+     * Get the elements of an Iterator, Iterable, array or Java 8
+     * <code>Stream</code>.
+     * @return an iterator, or <code>null</code> if the value is none of these.
+     */
+    static Iterator<?> iterator( Object value ) {
+        if ( value instanceof Iterator ) return (Iterator<?>)value;
+        if ( value instanceof Iterable ) return ((Iterable<?>)value).iterator();
+        if ( value != null && value.getClass().isArray() ) {
+            List<Object> list = new ArrayList<Object>();
+            for ( int i = 0; i < Array.getLength( value ); i++ ) list.add( Array.get( value, i ) );
+            return list.iterator();
+        }
+        if ( isStream( value ) ) {
+            try {
+                return (Iterator<?>)STREAM_CLASS.getMethod( "iterator" ).invoke( value );
+            }
+            catch ( Exception ex ) {
+                throw new IllegalArgumentException( "Cannot iterate over " + value.getClass(), ex );
+            }
+        }
+        return null;
+    }
+
+    private Iterator<?> oneShot( Iterator<?> items ) throws OneShotValueException {
+        if ( ! oneShotValues ) throw new OneShotValueException();
+        return items;
+    }
+
+    /**
+     * Library classes such as URI, UUID or Date are written as Strings rather
+     * than introspected.
+     */
+    private static boolean isValueType( Class<?> type ) {
+        String name = type.getName();
+        return name.startsWith( "java." ) || name.startsWith( "javax." );
+    }
+
+    private void writeNumber( Number n ) throws IOException {
+        if ( ( n instanceof Double && ( ((Double)n).isNaN() || ((Double)n).isInfinite() ) )
+                || ( n instanceof Float && ( ((Float)n).isNaN() || ((Float)n).isInfinite() ) ) )
+            throw new IllegalArgumentException( "JSON does not allow non-finite number " + n );
+        out.write( n.toString() );
+    }
+
+    private void writeMap( Map<?,?> map ) throws IOException {
+        enter( map );
+        out.write( '{' );
+        boolean first = true;
+        for ( Map.Entry<?,?> entry : map.entrySet() ) {
+            if ( ! first ) out.write( ',' );
+            first = false;
+            writeString( String.valueOf( entry.getKey() ) );
+            out.write( ':' );
+            write( entry.getValue() );
+        }
+        out.write( '}' );
+        parents.remove( map );
+    }
+
+    private void writeArray( Object source, Iterator<?> items ) throws IOException {
+        enter( source );
+        out.write( '[' );
+        boolean first = true;
+        while ( items.hasNext() ) {
+            if ( ! first ) out.write( ',' );
+            first = false;
+            write( items.next() );
+        }
+        out.write( ']' );
+        parents.remove( source );
+    }
+
+    private void writeArray( Object array ) throws IOException {
+        enter( array );
+        out.write( '[' );
+        int length = Array.getLength( array );
+        for ( int i = 0; i < length; i++ ) {
+            if ( i > 0 ) out.write( ',' );
+            write( Array.get( array, i ) );
+        }
+        out.write( ']' );
+        parents.remove( array );
+    }
+
+    private void writeBean( Object bean ) throws IOException {
+        BeanInfo info;
+        try { info = Introspector.getBeanInfo( bean.getClass() ); }
+        catch ( IntrospectionException ex ) {
+            throw new IllegalArgumentException( "Cannot write " + bean.getClass() + " as JSON", ex );
+        }
+        enter( bean );
+        boolean first = true;
+        for ( PropertyDescriptor property : info.getPropertyDescriptors() ) {
+            Method getter = property.getReadMethod();
+            String name = property.getName();
+            if ( getter == null || "class".equals( name ) || "metaClass".equals( name ) ) continue;
+            Object value;
+            try { value = getter.invoke( bean ); }
+            catch ( Exception ex ) {
+                throw new IllegalArgumentException( "Cannot read property '" + name
+                        + "' of " + bean.getClass(), ex );
+            }
+            out.write( first ? '{' : ',' );
+            first = false;
+            writeString( name );
+            out.write( ':' );
+            write( value );
+        }
+        // an object with no properties:
+        if ( first ) writeString( bean.toString() );
+        else out.write( '}' );
+        parents.remove( bean );
+    }
+
+    private void enter( Object container ) {
+        if ( parents.put( container, container ) != null ) throw new IllegalArgumentException(
+                "Cannot write a circular reference as JSON: " + container.getClass() );
+    }
+
+    private void writeString( String s ) throws IOException {
+        out.write( '"' );
+        int start = 0;
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt( i );
+            if ( c >= 0x20 && c != '"' && c != '\\' ) continue;
+            out.write( s, start, i - start );
+            start = i + 1;
+            switch ( c ) {
+            case '"' : out.write( "\\\"" ); break;
+            case '\\' : out.write( "\\\\" ); break;
+            case '\n' : out.write( "\\n" ); break;
+            case '\r' : out.write( "\\r" ); break;
+            case '\t' : out.write( "\\t" ); break;
+            case '\b' : out.write( "\\b" ); break;
+            case '\f' : out.write( "\\f" ); break;
+            default :
+                out.write( "\\u00" );
+                out.write( HEX[c >> 4] );
+                out.write( HEX[c & 0xf] );
+            }
+        }
+        out.write( s, start, s.length() - start );
+        out.write( '"' );
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map which stores entries on top of a shared, read-only map of default
+ * values.  Entries that are put or removed only change this map's own
+ * layer; the defaults are never modified.  This allows each request to
+ * start out with all of the {@link HTTPBuilder}'s default headers and
+ * response handlers without copying them.
+ *
+ * <p>Keys are normalized to strings as with {@link StringHashMap}.  The key
+ * and entry set views are read-only.</p>
+ *
+ * @see CopyOnWriteMap#snapshot()
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+class LayeredMap<V> extends AbstractMap<Object,V> {
+
+    protected final Map<Object,V> defaults;
+    protected final StringHashMap<V> overrides;
+    private Set<String> hidden;
+    private boolean defaultsCleared = false;
+
+    /**
+     * @param defaults values visible in this map unless overridden.  This map
+     *  must not be modified afterwards.
+     * @param overrides empty map to hold the entries set on this map.
+     */
+    LayeredMap( Map<Object,V> defaults, StringHashMap<V> overrides ) {
+        this.defaults = defaults;
+        this.overrides = overrides;
+    }
+
+    @Override
+    public V get( Object key ) {
+        if ( key == null ) return null;
+        String k = key.toString();
+        V value = overrides.get( k );
+        if ( value != null || overrides.containsKey( k ) ) return value;
+        return isHidden( k ) ? null : defaults.get( k );
+    }
+
+    @Override
+    public boolean containsKey( Object key ) {
+        if ( key == null ) return false;
+        String k = key.toString();
+        if ( overrides.containsKey( k ) ) return true;
+        return ! isHidden( k ) && defaults.containsKey( k );
+    }
+
+    @Override
+    public V put( Object key, V value ) {
+        if ( key == null ) return value;
+        String k = key.toString();
+        V old = get( k );
+        overrides.put( k, value );
+        if ( hidden != null ) hidden.remove( k );
+        return old;
+    }
+
+    @Override
+    public V remove( Object key ) {
+        if ( key == null ) return null;
+        String k = key.toString();
+        V old = get( k );
+        overrides.remove( k );
+        if ( ! defaultsCleared && defaults.containsKey( k ) ) {
+            if ( hidden == null ) hidden = new HashSet<String>();
+            hidden.add( k );
+        }
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        overrides.clear();
+        hidden = null;
+        defaultsCleared = true;
+    }
+
+    /**
+     * @return true if any default entries have been removed from this map.
+     */
+    protected boolean hasHiddenDefaults() {
+        return defaultsCleared || ( hidden != null && ! hidden.isEmpty() );
+    }
+
+    /**
+     * @return true if the default entry for the given key was removed.
+     */
+    protected boolean isHidden( String key ) {
+        return defaultsCleared || ( hidden != null && hidden.contains( key ) );
+    }
+
+    @Override
+    public Set<Map.Entry<Object,V>> entrySet() {
+        return new AbstractSet<Map.Entry<Object,V>>() {
+            @Override public Iterator<Map.Entry<Object,V>> iterator() {
+                return new EntryIterator();
+            }
+            @Override public int size() {
+                int size = 0;
+                for ( Iterator<?> i = iterator(); i.hasNext(); i.next() ) size++;
+                return size;
+            }
+        };
+    }
+
+    /* Iterates over the overrides, then any defaults that are neither
+       overridden nor hidden. */
+    private class EntryIterator implements Iterator<Map.Entry<Object,V>> {
+        private final Iterator<Map.Entry<Object,V>> over = overrides.entrySet().iterator();
+        private final Iterator<Map.Entry<Object,V>> base = defaultsCleared ? null :
+            defaults.entrySet().iterator();
+        private Map.Entry<Object,V> next;
+
+        public boolean hasNext() {
+            if ( next != null ) return true;
+            if ( over.hasNext() ) {
+                next = over.next();
+                return true;
+            }
+            while ( base != null && base.hasNext() ) {
+                Map.Entry<Object,V> entry = base.next();
+                String key = entry.getKey().toString();
+                if ( overrides.containsKey( key ) || isHidden( key ) ) continue;
+                next = entry;
+                return true;
+            }
+            return false;
+        }
+
+        public Map.Entry<Object,V> next() {
+            if ( ! hasNext() ) throw new NoSuchElementException();
+            Map.Entry<Object,V> entry = next;
+            next = null;
+            return entry;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException( "Use Map.remove(key)" );
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+
+/**
+ * <p>Request entity for <code>multipart/form-data</code> uploads.  Each part
+ * is written to the connection in sequence when the request is sent, so file
+ * and stream parts are never buffered in memory.  If the length of every part
+ * is known, the entity has an exact <code>Content-Length</code>; otherwise
+ * it is sent with chunked transfer-encoding.</p>
+ *
+ * <pre>
+ * def entity = new MultipartEntity( Charset.forName( 'UTF-8' ) )
+ *         .addField( 'title', 'Holiday' )
+ *         .addPart( 'photo', 'beach.jpg', new FileChannelEntity( file ) )
+ * </pre>
+ *
+ * @see EncoderRegistry#encodeMultipart(Object, Object)
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class MultipartEntity extends AbstractHttpEntity {
+
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final char[] BOUNDARY_CHARS =
+        "-_0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+    private static final Random RANDOM = new Random();
+
+    private final Charset charset;
+    private final String boundary;
+    private final List<Part> parts = new ArrayList<Part>();
+
+    /**
+     * Create an empty entity with a random boundary.
+     * @param charset encoding of text fields, field names and file names.
+     */
+    public MultipartEntity( Charset charset ) {
+        this( charset, randomBoundary() );
+    }
+
+    /**
+     * @param charset encoding of text fields, field names and file names.
+     * @param boundary delimiter between parts, which must not occur in the
+     *  content of any part.
+     */
+    public MultipartEntity( Charset charset, String boundary ) {
+        if ( charset == null ) throw new IllegalArgumentException( "charset may not be null" );
+        if ( boundary == null || boundary.length() < 1 || boundary.length() > 70 )
+            throw new IllegalArgumentException( "Invalid boundary: " + boundary );
+        this.charset = charset;
+        this.boundary = boundary;
+        setContentType( ContentType.MULTIPART.toString() + "; boundary=" + boundary );
+    }
+
+    private static String randomBoundary() {
+        char[] chars = new char[30];
+        synchronized ( RANDOM ) {
+            for ( int i = 0; i < chars.length; i++ )
+                chars[i] = BOUNDARY_CHARS[RANDOM.nextInt( BOUNDARY_CHARS.length )];
+        }
+        return new String( chars );
+    }
+
+    public String getBoundary() {
+        return this.boundary;
+    }
+
+    /**
+     * Add a text field.
+     * @return this entity
+     */
+    public MultipartEntity addField( String name, String value ) {
+        if ( value == null ) value = "";
+        return addPart( name, null, new ByteArrayEntity( bytes( value ) ) );
+    }
+
+    /**
+     * Add a part whose content is written by the given entity.  The part's
+     * <code>Content-Type</code> header is taken from the entity.
+     * @param name field name
+     * @param filename file name sent to the server, or <code>null</code>
+     * @param body content of the part
+     * @return this entity
+     */
+    public MultipartEntity addPart( String name, String filename, HttpEntity body ) {
+        if ( name == null ) throw new IllegalArgumentException( "name may not be null" );
+        if ( body == null ) throw new IllegalArgumentException( "body may not be null" );
+        StringBuilder headers = new StringBuilder( "--" ).append( boundary )
+            .append( "\r\nContent-Disposition: form-data; name=\"" )
+            .append( quote( name ) ).append( '"' );
+        if ( filename != null )
+            headers.append( "; filename=\"" ).append( quote( filename ) ).append( '"' );
+        headers.append( "\r\n" );
+        Header type = body.getContentType();
+        if ( type != null ) headers.append( "Content-Type: " ).append( type.getValue() ).append( "\r\n" );
+        headers.append( "\r\n" );
+        parts.add( new Part( bytes( headers.toString() ), body ) );
+        return this;
+    }
+
+    /* escape a header parameter value as browsers do */
+    private static String quote( String value ) {
+        return value.replace( "\"", "%22" ).replace( "\r", "%0D" ).replace( "\n", "%0A" );
+    }
+
+    private byte[] bytes( String value ) {
+        ByteBuffer encoded = charset.encode( value );
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.get( bytes );
+        return bytes;
+    }
+
+    private byte[] closingDelimiter() {
+        return bytes( "--" + boundary + "--\r\n" );
+    }
+
+    /**
+     * @return the total length of all parts, or -1 if the length of any part
+     *  is not known.
+     */
+    public long getContentLength() {
+        long length = closingDelimiter().length;
+        for ( Part part : parts ) {
+            long bodyLength = part.body.getContentLength();
+            if ( bodyLength < 0 ) return -1;
+            length += part.headers.length + bodyLength + CRLF.length;
+        }
+        return length;
+    }
+
+    @Override public boolean isChunked() {
+        return getContentLength() < 0;
+    }
+
+    public boolean isRepeatable() {
+        for ( Part part : parts )
+            if ( ! part.body.isRepeatable() ) return false;
+        return true;
+    }
+
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Write the content to a buffer.  Note that this holds the entire
+     * content in memory; {@link #writeTo(OutputStream)} does not.
+     */
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeTo( buffer );
+        return new ByteArrayInputStream( buffer.toByteArray() );
+    }
+
+    public void writeTo( OutputStream out ) throws IOException {
+        if ( out == null ) throw new IllegalArgumentException( "Output stream may not be null" );
+        OutputStream body = new FilterOutputStream( out ) {
+            @Override public void write( byte[] b, int off, int len ) throws IOException {
+                out.write( b, off, len );
+            }
+            // a part must not close the connection's stream
+            @Override public void close() throws IOException {
+                flush();
+            }
+        };
+        for ( Part part : parts ) {
+            out.write( part.headers );
+            part.body.writeTo( body );
+            out.write( CRLF );
+        }
+        out.write( closingDelimiter() );
+        out.flush();
+    }
+
+    private static class Part {
+        final byte[] headers;
+        final HttpEntity body;
+
+        Part( byte[] headers, HttpEntity body ) {
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+}
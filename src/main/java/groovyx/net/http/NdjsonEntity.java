@@ -0,0 +1,75 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+
+/**
+ * <p>Request entity for bulk uploads in
+ * <a href="http://ndjson.org/">newline-delimited JSON</a> format.  Each
+ * element of the model is written as JSON on its own line as it is read, so
+ * an <code>Iterator</code> over millions of records (e.g. from a database
+ * cursor) can be uploaded in constant memory.  The model may be an
+ * Iterator, Iterable, array or Java 8 <code>Stream</code>.</p>
+ *
+ * <p>The output is flushed every {@link #FLUSH_INTERVAL} elements, so
+ * records are sent steadily even if the model is slow to produce them.</p>
+ *
+ * @see EncoderRegistry#encodeNDJSON(Object, Object)
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class NdjsonEntity extends JsonEntity {
+
+    /** Number of elements written between each flush of the output */
+    public static final int FLUSH_INTERVAL = 1000;
+
+    /**
+     * @param elements the records to send
+     * @param charset character encoding of the request body
+     * @throws IllegalArgumentException if the model is not an Iterator,
+     *  Iterable, array or Stream.
+     */
+    public NdjsonEntity( Object elements, Charset charset ) {
+        super( elements, charset );
+        if ( ! ( elements instanceof Iterator || elements instanceof Iterable
+                || JsonWriter.isStream( elements )
+                || ( elements != null && elements.getClass().isArray() ) ) )
+            throw new IllegalArgumentException( "NDJSON body must be an Iterator, "
+                    + "Iterable, array or Stream: " + ( elements != null ? elements.getClass() : null ) );
+        setContentType( ContentType.NDJSON.toString() );
+    }
+
+    @Override protected void write( Writer writer ) throws IOException {
+        JsonWriter json = newJsonWriter( writer );
+        Iterator<?> elements = JsonWriter.iterator( getModel() );
+        int count = 0;
+        while ( elements.hasNext() ) {
+            json.write( elements.next() );
+            writer.write( '\n' );
+            if ( ++count % FLUSH_INTERVAL == 0 ) writer.flush();
+        }
+    }
+}
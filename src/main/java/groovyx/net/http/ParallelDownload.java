@@ -0,0 +1,459 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import static groovyx.net.http.URIBuilder.convertToURI;
+import groovy.lang.Closure;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.BasicClientConnectionManager;
+import org.apache.http.impl.conn.SingleClientConnManager;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * <p>Downloads a large resource over several connections at once.  A
+ * <code>HEAD</code> request first checks whether the server accepts byte
+ * ranges, and how long the resource is.  The target file is then
+ * preallocated, and each segment of the resource is requested in parallel
+ * and written at its own offset in the file:</p>
+ * <pre>
+ * def download = new ParallelDownload( uri : 'http://example.com/big.iso',
+ *         saveTo : 'big.iso', segments : 8 )
+ * download.progress = { segment ->
+ *     println "segment $segment.index: $segment.written of $segment.length" }
+ * File file = download.download()
+ * </pre>
+ *
+ * <p>A segment that fails part way through is re-requested from where it
+ * left off, up to {@link #getRetries() retries} times.  If a segment still
+ * fails, <code>download()</code> throws the error and may be called again
+ * later to fetch only the incomplete segments.  If the server does not
+ * support ranges, or does not give the content length, the resource is
+ * downloaded over a single connection.</p>
+ *
+ * <p>If the server sends an <code>ETag</code> or <code>Last-Modified</code>
+ * validator, it is sent with every range request as <code>If-Range</code>, so
+ * a resource that changes during the download is detected rather than
+ * spliced together from two versions.</p>
+ *
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class ParallelDownload {
+
+    /** Default number of concurrent segments. */
+    public static final int DEFAULT_SEGMENTS = 4;
+    /** Default number of times a failed segment is resumed. */
+    public static final int DEFAULT_RETRIES = 3;
+    /** Resources are not split into segments smaller than this. */
+    public static final long MIN_SEGMENT_SIZE = 256 * 1024;
+
+    protected final Log log = LogFactory.getLog( getClass() );
+
+    private final HTTPBuilder builder;
+    private final URI uri;
+    private final File file;
+    private int segmentCount = DEFAULT_SEGMENTS;
+    private int retries = DEFAULT_RETRIES;
+    private Closure progress;
+
+    private String validator;
+    private boolean ranged;
+    private List<Segment> segments;
+
+    /**
+     * Accepts the following named parameters:
+     * <dl>
+     *  <dt>uri</dt><dd>The resource to download; either a URI, URL, or
+     *      object whose <code>toString()</code> produces a valid URI string.
+     *      Defaults to the <code>builder</code>'s default URI.</dd>
+     *  <dt>saveTo</dt><dd>(required) File, <code>java.nio.file.Path</code>
+     *      or file path to write to.</dd>
+     *  <dt>builder</dt><dd>An {@link HTTPBuilder} whose client (and so its
+     *      credentials, SSL and proxy settings) and default headers are used
+     *      for each request.  It must be pooled, i.e. have a
+     *      {@link HTTPBuilder#setConnectionPool(ConnectionPool) connection
+     *      pool}, and the pool's per-route limit caps the number of segments
+     *      that are actually downloaded at once.  If not given, a pool with
+     *      one connection per segment is used for each download.</dd>
+     *  <dt>segments</dt><dd>Number of concurrent segments. Default is
+     *      {@link #DEFAULT_SEGMENTS}.</dd>
+     *  <dt>retries</dt><dd>How many times a failed segment is resumed.
+     *      Default is {@link #DEFAULT_RETRIES}.</dd>
+     *  <dt>progress</dt><dd>See {@link #setProgress(Closure)}</dd>
+     * </dl>
+     * @throws URISyntaxException if the uri argument does not represent a valid URI
+     */
+    public ParallelDownload( Map<String,?> args ) throws URISyntaxException {
+        if ( args == null ) throw new IllegalArgumentException( "args may not be null" );
+        this.builder = (HTTPBuilder)args.remove( "builder" );
+        if ( builder != null ) {
+            ClientConnectionManager cm = builder.getClient().getConnectionManager();
+            if ( cm instanceof BasicClientConnectionManager || cm instanceof SingleClientConnManager )
+                throw new IllegalArgumentException(
+                        "builder must use a connection pool for parallel requests" );
+        }
+
+        Object uri = args.remove( "uri" );
+        if ( uri == null && builder != null ) uri = builder.getUri();
+        if ( uri == null ) throw new IllegalArgumentException( "No 'uri' parameter was given" );
+        this.uri = convertToURI( uri );
+
+        Object saveTo = args.remove( "saveTo" );
+        if ( saveTo == null ) throw new IllegalArgumentException( "No 'saveTo' parameter was given" );
+        this.file = FileTransfer.toFile( saveTo );
+
+        Object arg = args.remove( "segments" );
+        if ( arg != null ) setSegments( Integer.parseInt( arg.toString() ) );
+
+        arg = args.remove( "retries" );
+        if ( arg != null ) setRetries( Integer.parseInt( arg.toString() ) );
+
+        this.progress = (Closure)args.remove( "progress" );
+
+        if ( args.size() > 0 ) {
+            String invalidArgs = "";
+            for ( String k : args.keySet() ) invalidArgs += k + ",";
+            throw new IllegalArgumentException("Unexpected keyword args: " + invalidArgs);
+        }
+    }
+
+    /**
+     * Download the resource, or the segments that are not yet complete if
+     * a previous call failed.
+     * @return the file that was written.
+     * @throws IOException if a segment failed after all retries, or the
+     *  file could not be written
+     * @throws InterruptedException if the calling thread is interrupted
+     *  while waiting for the segments to complete.
+     */
+    public synchronized File download() throws IOException, InterruptedException {
+        ConnectionPool pool = null;
+        HttpClient client;
+        if ( builder != null ) client = builder.getClient();
+        else {
+            pool = new ConnectionPool( segmentCount, segmentCount );
+            client = new DefaultHttpClient( pool.getConnectionManager() );
+        }
+        try {
+            if ( segments == null ) probe( client );
+
+            List<Segment> pending = new ArrayList<Segment>();
+            for ( Segment s : segments ) if ( ! s.isComplete() ) pending.add( s );
+            if ( pending.isEmpty() ) return file;
+
+            FileChannel channel = FileTransfer.openChannel( file );
+            ExecutorService threads = Executors.newFixedThreadPool( pending.size() );
+            try {
+                if ( ranged ) channel.truncate( getLength() );
+                List<Future<?>> results = new ArrayList<Future<?>>();
+                for ( Segment s : pending )
+                    results.add( threads.submit( new SegmentTask( client, s, channel ) ) );
+                Throwable failure = null;
+                for ( Future<?> result : results ) {
+                    try { result.get(); }
+                    catch ( ExecutionException ex ) {
+                        if ( failure == null ) failure = ex.getCause();
+                    }
+                }
+                if ( failure instanceof IOException ) throw (IOException)failure;
+                if ( failure instanceof RuntimeException ) throw (RuntimeException)failure;
+                if ( failure != null ) throw (Error)failure;
+                if ( ! ranged ) channel.truncate( segments.get( 0 ).getWritten() );
+            }
+            finally {
+                threads.shutdownNow();
+                channel.close();
+            }
+            return file;
+        }
+        finally {
+            if ( pool != null ) pool.shutdown();
+        }
+    }
+
+    /**
+     * Send a HEAD request to find whether byte ranges are supported, and
+     * split the resource into segments.
+     */
+    protected void probe( HttpClient client ) throws IOException {
+        HttpHead head = new HttpHead( uri );
+        FileTransfer.addHeaders( builder, head );
+        HttpResponse resp = client.execute( head );
+        try {
+            if ( resp.getStatusLine().getStatusCode() >= 300 )
+                throw new HttpResponseException( new HttpResponseDecorator( resp, null ) );
+
+            long length = -1;
+            Header h = resp.getFirstHeader( "Content-Length" );
+            if ( h != null ) length = Long.parseLong( h.getValue().trim() );
+            h = resp.getFirstHeader( "Accept-Ranges" );
+            boolean acceptRanges = h != null && h.getValue().toLowerCase().contains( "bytes" );
+            boolean encoded = resp.getFirstHeader( "Content-Encoding" ) != null;
+            this.ranged = acceptRanges && ! encoded && length > 0;
+
+            this.validator = FileTransfer.getValidator( resp );
+
+            List<Segment> list = new ArrayList<Segment>();
+            if ( ! ranged ) list.add( new Segment( 0, 0, -1 ) );
+            else {
+                int count = (int)Math.max( 1, Math.min( segmentCount, length / MIN_SEGMENT_SIZE ) );
+                long size = length / count;
+                for ( int i = 0; i < count; i++ ) {
+                    long start = i * size;
+                    long end = i == count - 1 ? length - 1 : start + size - 1;
+                    list.add( new Segment( i, start, end ) );
+                }
+            }
+            this.segments = Collections.unmodifiableList( list );
+            log.debug( "Downloading " + uri + " in " + list.size() + " segment(s)" );
+        }
+        finally {
+            EntityUtils.consume( resp.getEntity() );
+        }
+    }
+
+    /**
+     * Request the rest of a segment, resuming it if the request fails.
+     */
+    protected void fetch( HttpClient client, final Segment segment, FileChannel channel )
+            throws IOException {
+        for ( int attempt = 0; ; attempt++ ) {
+            try {
+                fetchOnce( client, segment, channel );
+                return;
+            }
+            catch ( HttpResponseException ex ) { throw ex; }
+            catch ( IOException ex ) {
+                if ( attempt >= retries ) throw ex;
+                log.warn( "Segment " + segment.getIndex() + " failed after "
+                        + segment.getWritten() + " bytes; resuming", ex );
+            }
+        }
+    }
+
+    private void fetchOnce( HttpClient client, final Segment segment, FileChannel channel )
+            throws IOException {
+        HttpGet get = new HttpGet( uri );
+        FileTransfer.addHeaders( builder, get );
+        if ( ranged ) {
+            get.setHeader( "Range", "bytes=" + segment.getPosition() + "-" + segment.getEnd() );
+            if ( validator != null ) get.setHeader( "If-Range", validator );
+        }
+        else segment.written = 0; // cannot resume without ranges
+
+        boolean complete = false;
+        HttpResponse resp = client.execute( get );
+        try {
+            int status = resp.getStatusLine().getStatusCode();
+            if ( ranged && status == 200 ) throw new HttpResponseException(
+                    new HttpResponseDecorator( resp, null ),
+                    "Resource has changed, or does not support ranges" );
+            if ( status >= 300 || ( ranged && status != 206 ) )
+                throw new HttpResponseException( new HttpResponseDecorator( resp, null ) );
+            HttpEntity entity = resp.getEntity();
+            if ( ranged ) {
+                if ( entity.getContentEncoding() != null ) throw new HttpResponseException(
+                        new HttpResponseDecorator( resp, null ),
+                        "Ranged response may not be content-encoded" );
+                Header h = resp.getFirstHeader( "Content-Range" );
+                if ( h == null || ! h.getValue().startsWith(
+                        "bytes " + segment.getPosition() + "-" ) )
+                    throw new HttpResponseException( new HttpResponseDecorator( resp, null ),
+                            "Unexpected Content-Range: " + ( h != null ? h.getValue() : null ) );
+            }
+
+            FileTransfer.transfer( entity.getContent(), channel, segment.getPosition(),
+                    new FileTransfer.Progress() {
+                        public void written( long bytes ) {
+                            segment.written += bytes;
+                            if ( progress != null ) progress.call( segment );
+                        }
+                    } );
+            if ( ranged && ! segment.isComplete() )
+                throw new IOException( "Connection closed before end of segment "
+                        + segment.getIndex() );
+            segment.complete = true;
+            complete = true;
+        }
+        finally {
+            if ( ! complete ) get.abort();
+        }
+    }
+
+    private class SegmentTask implements Callable<Object> {
+        private final HttpClient client;
+        private final Segment segment;
+        private final FileChannel channel;
+
+        SegmentTask( HttpClient client, Segment segment, FileChannel channel ) {
+            this.client = client;
+            this.segment = segment;
+            this.channel = channel;
+        }
+
+        public Object call() throws IOException {
+            fetch( client, segment, channel );
+            return null;
+        }
+    }
+
+    /**
+     * Set a closure that is called with the {@link Segment} each time part
+     * of it is written.  Note that this is called concurrently from each
+     * segment's download thread.
+     */
+    public void setProgress( Closure progress ) { this.progress = progress; }
+
+    public Closure getProgress() { return this.progress; }
+
+    /**
+     * Set the number of segments to download concurrently.  This has no
+     * effect once the download has started.
+     */
+    public void setSegments( int segments ) {
+        if ( segments < 1 ) throw new IllegalArgumentException( "segments may not be < 1" );
+        this.segmentCount = segments;
+    }
+
+    /**
+     * @return the download's segments, or an empty list if the download has
+     * not started.
+     */
+    public List<Segment> getSegments() {
+        List<Segment> list = this.segments;
+        if ( list == null ) return Collections.emptyList();
+        return list;
+    }
+
+    /**
+     * Set how many times a segment that fails part way through is resumed.
+     */
+    public void setRetries( int retries ) {
+        if ( retries < 0 ) throw new IllegalArgumentException( "retries may not be < 0" );
+        this.retries = retries;
+    }
+
+    public int getRetries() { return this.retries; }
+
+    public URI getUri() { return this.uri; }
+
+    public File getFile() { return this.file; }
+
+    /**
+     * @return the resource length, or <code>-1</code> if it is not known.
+     */
+    public long getLength() {
+        List<Segment> list = this.segments;
+        if ( list == null || ! ranged ) return -1;
+        return list.get( list.size() - 1 ).getEnd() + 1;
+    }
+
+    /**
+     * @return total bytes written by all segments.
+     */
+    public long getWritten() {
+        long written = 0;
+        for ( Segment s : getSegments() ) written += s.getWritten();
+        return written;
+    }
+
+    /**
+     * @return <code>true</code> if every segment has been downloaded.
+     */
+    public boolean isComplete() {
+        if ( this.segments == null ) return false;
+        for ( Segment s : segments ) if ( ! s.isComplete() ) return false;
+        return true;
+    }
+
+    /**
+     * A byte range of the resource, downloaded over its own connection.
+     */
+    public static class Segment {
+        private final int index;
+        private final long start;
+        private final long end;
+        volatile long written;
+        volatile boolean complete;
+
+        Segment( int index, long start, long end ) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+        }
+
+        public int getIndex() { return this.index; }
+
+        /** @return offset of the first byte of this segment. */
+        public long getStart() { return this.start; }
+
+        /**
+         * @return offset of the last byte of this segment, or <code>-1</code>
+         * if the resource length is not known.
+         */
+        public long getEnd() { return this.end; }
+
+        /** @return the segment length, or <code>-1</code> if not known. */
+        public long getLength() { return end < 0 ? -1 : end - start + 1; }
+
+        /** @return bytes of this segment written to the file so far. */
+        public long getWritten() { return this.written; }
+
+        /** @return offset of the next byte to be written. */
+        long getPosition() { return this.start + this.written; }
+
+        public boolean isComplete() {
+            return this.complete || ( end >= 0 && written >= getLength() );
+        }
+
+        @Override public String toString() {
+            return "Segment " + index + " [" + start + "-" + ( end < 0 ? "" : end )
+                + "] " + written + " bytes written";
+        }
+    }
+}
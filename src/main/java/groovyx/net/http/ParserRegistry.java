@@ -36,10 +36,16 @@ import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -53,8 +59,12 @@ import org.apache.xml.resolver.Catalog;
 import org.apache.xml.resolver.CatalogManager;
 import org.apache.xml.resolver.tools.CatalogResolver;
 import org.codehaus.groovy.runtime.MethodClosure;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
 
 /**
@@ -74,6 +84,10 @@ import org.xml.sax.XMLReader;
  * <p>You can see the list of content-type parsers that are built-in to the
  * ParserRegistry class in {@link #buildDefaultParserMap()}.</p>
  *
+ * <p>Internally, every parser is held as a {@link ResponseParser}.  Parser
+ * closures are adapted to that interface when they are registered, and the
+ * built-in parsers are called directly rather than through a closure.</p>
+ *
  * @see ContentType
  * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
  */
@@ -91,8 +105,8 @@ public class ParserRegistry {
      */
     public static final String DEFAULT_CHARSET = "UTF-8";
 
-    private Closure defaultParser = DEFAULT_PARSER;
-    private Map<String,Closure> registeredParsers = buildDefaultParserMap();
+    private ResponseParser defaultParser = adapt( DEFAULT_PARSER );
+    private Map<String,ResponseParser> registeredParsers = adapt( buildDefaultParserMap() );
     private static String defaultCharset = DEFAULT_CHARSET;
 
     protected static final Log log = LogFactory.getLog( ParserRegistry.class );
@@ -103,22 +117,122 @@ public class ParserRegistry {
      * way to share a single Catalog instance between resolvers.  The
      * {@link Catalog} class is technically not thread-safe, but as long as you
      * do not parse catalog files while using the resolver, it should be fine.
+     * <p>The catalog is not loaded until it is first needed to resolve an
+     * entity, so clients that never parse XML or HTML do not pay for it.
+     * This field is <code>null</code> until then; use
+     * {@link #getCatalogResolver()} rather than reading it directly.</p>
+     */
+    protected static volatile CatalogResolver catalogResolver;
+
+    /*
+     * Creating an XmlSlurper looks up a SAXParserFactory and builds a new
+     * parser, and each NekoHTML parser loads its whole configuration.  The
+     * underlying parser can be reused once it has finished parsing, so a few
+     * idle ones of each kind are kept in a small shared pool.  The XmlSlurper
+     * itself is not reused: it keeps the namespace prefixes it has seen in a
+     * map that is shared by every GPathResult it returns.  A pool is used
+     * rather than a ThreadLocal so pooled container threads do not hold on
+     * to parsers (and their class loader) after an application is redeployed.
      */
-    protected static CatalogResolver catalogResolver;
+    private static final ParserPool<SAXParser> xmlParsers = new ParserPool<SAXParser>() {
+        private final SAXParserFactory factory = SAXParserFactory.newInstance();
+        {
+            factory.setNamespaceAware( true );
+            factory.setValidating( false );
+        }
+
+        SAXParser create() throws SAXException {
+            try {
+                synchronized ( factory ) { return factory.newSAXParser(); }
+            }
+            catch ( ParserConfigurationException ex ) {
+                throw new SAXException( "Could not create XML parser", ex );
+            }
+        }
+
+        void reset( SAXParser parser ) {
+            parser.reset();
+        }
+    };
+
+    private static final ParserPool<XMLReader> htmlParsers = new ParserPool<XMLReader>() {
+        private final ContentHandler noHandler = new DefaultHandler();
+
+        XMLReader create() {
+            return new org.cyberneko.html.parsers.SAXParser();
+        }
+
+        /* so a pooled parser does not keep the last document alive */
+        void reset( XMLReader parser ) {
+            parser.setContentHandler( noHandler );
+        }
+    };
+
+    private static abstract class ParserPool<T> {
+        private static final int MAX_IDLE = 8;
+        private final BlockingQueue<T> idle = new ArrayBlockingQueue<T>( MAX_IDLE );
+
+        abstract T create() throws SAXException;
+
+        abstract void reset( T parser );
+
+        /* A borrowed parser is out of the pool while in use, so a nested or
+           concurrent parse gets its own */
+        T borrow() throws SAXException {
+            T parser = idle.poll();
+            return parser != null ? parser : create();
+        }
+
+        /* Only called after a successful parse, since a failed one may leave
+           the parser part way through a document.  Dropped if the pool is full. */
+        void release( T parser ) {
+            reset( parser );
+            idle.offer( parser );
+        }
 
-    static {
+        void clear() {
+            idle.clear();
+        }
+    }
+
+    /*
+     * Keeps DTDs and entities resolved by the catalog in memory, so the
+     * bundled XHTML DTDs are not re-read for every document.
+     */
+    private static final CachingEntityResolver entityResolver = new CachingEntityResolver(
+            new EntityResolver() {
+                public InputSource resolveEntity( String publicId, String systemId )
+                        throws SAXException, IOException {
+                    return getCatalogResolver().resolveEntity( publicId, systemId );
+                }
+            }, CachingEntityResolver.DEFAULT_MAX_SIZE );
+
+    private static CatalogResolver createCatalogResolver() {
         CatalogManager catalogManager = new CatalogManager();
         catalogManager.setIgnoreMissingProperties( true );
         catalogManager.setUseStaticCatalog( false );
         catalogManager.setRelativeCatalogs( true );
+        CatalogResolver resolver = new CatalogResolver( catalogManager );
         try {
-            catalogResolver = new CatalogResolver( catalogManager );
-            catalogResolver.getCatalog().parseCatalog(
+            resolver.getCatalog().parseCatalog(
                     ParserRegistry.class.getResource( "/catalog/html.xml" ) );
         } catch ( IOException ex ) {
-            LogFactory.getLog( ParserRegistry.class )
-                .warn( "Could not resolve default XML catalog", ex );
+            log.warn( "Could not resolve default XML catalog", ex );
         }
+        return resolver;
+    }
+
+    /**
+     * Discard the idle XML and HTML parsers kept for reuse by
+     * {@link #parseXML(HttpResponse)} and {@link #parseHTML(HttpResponse)}.
+     * New parsers are created as they are needed.  An application that is
+     * being undeployed, or that has changed the JAXP parser configuration,
+     * can call this to release the cached instances.
+     * @since 0.7.3
+     */
+    public static void clearParserCache() {
+        xmlParsers.clear();
+        htmlParsers.clear();
     }
 
     /**
@@ -237,6 +351,7 @@ public class ParserRegistry {
 
     /**
      * Parse an HTML document by passing it through the NekoHTML parser.
+     * The parser is reused for later responses; see {@link #clearParserCache()}.
      * @see ContentType#HTML
      * @see org.cyberneko.html.parsers.SAXParser
      * @see XmlSlurper#parse(Reader)
@@ -246,13 +361,17 @@ public class ParserRegistry {
      * @throws SAXException
      */
     public GPathResult parseHTML( HttpResponse resp ) throws IOException, SAXException {
-        XMLReader p = new org.cyberneko.html.parsers.SAXParser();
-        p.setEntityResolver( catalogResolver );
-        return new XmlSlurper( p ).parse( parseText( resp ) );
+        XMLReader parser = htmlParsers.borrow();
+        XmlSlurper html = new XmlSlurper( parser );
+        html.setEntityResolver( entityResolver );
+        GPathResult result = html.parse( parseText( resp ) );
+        htmlParsers.release( parser );
+        return result;
     }
 
     /**
-     * Default parser used to decode an XML response.
+     * Default parser used to decode an XML response.  The parser is reused
+     * for later responses; see {@link #clearParserCache()}.
      * @see ContentType#XML
      * @see XmlSlurper#parse(Reader)
      * @param resp HTTP response from which to parse content
@@ -262,9 +381,32 @@ public class ParserRegistry {
      * @throws ParserConfigurationException
      */
     public GPathResult parseXML( HttpResponse resp ) throws IOException, SAXException, ParserConfigurationException {
-        XmlSlurper xml = new XmlSlurper();
-        xml.setEntityResolver( catalogResolver );
-        return xml.parse( parseText( resp ) );
+        SAXParser parser = xmlParsers.borrow();
+        XmlSlurper xml = new XmlSlurper( parser );
+        xml.setEntityResolver( entityResolver );
+        GPathResult result = xml.parse( parseText( resp ) );
+        xmlParsers.release( parser );
+        return result;
+    }
+
+    /**
+     * <p>Alternative XML parser which returns a StAX pull parser over the live
+     * response stream, rather than building the whole document.  Use this for
+     * very large XML responses, by registering it for the content-type:</p>
+     * <pre>
+     * http.parser.'application/atom+xml' = http.parser.&amp;parseXMLStream
+     * </pre>
+     * <p>The reader must be consumed from within the response handler (or
+     * with {@link HTTPBuilder#setStreamingResponses(boolean) streaming
+     * responses} enabled.)  To iterate over repeated elements instead, use
+     * an {@link XmlIterator#parser(String...) XmlIterator}.</p>
+     * @param resp HTTP response from which to parse content
+     * @return an <code>XMLStreamReader</code> positioned at the start of the
+     *  document.
+     * @throws IOException
+     */
+    public XMLStreamReader parseXMLStream( HttpResponse resp ) throws IOException {
+        return XmlIterator.createReader( resp );
     }
 
     /**
@@ -325,15 +467,38 @@ public class ParserRegistry {
      * @throws IOException if the given URL cannot be parsed or accessed for whatever reason.
      */
     public static void addCatalog( URL catalogLocation ) throws IOException {
-        catalogResolver.getCatalog().parseCatalog( catalogLocation );
+        getCatalogResolver().getCatalog().parseCatalog( catalogLocation );
+        entityResolver.clear();
     }
 
     /**
-     * Access the default catalog used by all HTTPBuilder instances.
+     * Access the default catalog used by all HTTPBuilder instances.  The
+     * catalog is loaded by the first call to this method.
      * @return the static {@link CatalogResolver} instance
      */
     public static CatalogResolver getCatalogResolver() {
-        return catalogResolver;
+        CatalogResolver resolver = catalogResolver;
+        if ( resolver == null ) {
+            synchronized ( ParserRegistry.class ) {
+                resolver = catalogResolver;
+                if ( resolver == null ) catalogResolver = resolver = createCatalogResolver();
+            }
+        }
+        return resolver;
+    }
+
+    /**
+     * Access the entity resolver used by the XML and HTML parsers.  This
+     * resolves entities through the {@link #getCatalogResolver() catalog},
+     * and keeps the content of resolved DTDs and entity files in memory so
+     * they are only read once.  Use it when parsing a response manually:
+     * <pre>
+     * new XmlSlurper( entityResolver : ParserRegistry.entityResolver ).parse( reader )
+     * </pre>
+     * @since 0.7.3
+     */
+    public static EntityResolver getEntityResolver() {
+        return entityResolver;
     }
 
     /**
@@ -341,16 +506,15 @@ public class ParserRegistry {
      * @return
      */
     public Closure getDefaultParser() {
-        return this.defaultParser;
+        return toClosure( this.defaultParser );
     }
 
     /**
      * Set the default parser used for unregistered content-types.
-     * @param defaultParser if
+     * @param defaultParser if <code>null</code>, {@link #DEFAULT_PARSER} is used.
      */
     public void setDefaultParser( Closure defaultParser ) {
-        if ( defaultParser == null ) this.defaultParser = DEFAULT_PARSER;
-        this.defaultParser = defaultParser;
+        this.defaultParser = adapt( defaultParser != null ? defaultParser : DEFAULT_PARSER );
     }
 
     /**
@@ -364,13 +528,26 @@ public class ParserRegistry {
      *   content-type.
      */
     public Closure getAt( Object contentType ) {
+        return toClosure( this.getParser( contentType ) );
+    }
+
+    /**
+     * Retrieve a parser for the given response content-type string.  This is
+     * the same as {@link #getAt(Object)} but returns the parser without
+     * wrapping it in a closure.
+     * @param contentType
+     * @return parser that can interpret the given response content type,
+     *   or the default parser if no parser is registered for the given
+     *   content-type.
+     */
+    public ResponseParser getParser( Object contentType ) {
         if ( contentType == null ) return defaultParser;
 
         String ct = contentType.toString();
         int idx = ct.indexOf( ';' );
         if ( idx > 0 ) ct = ct.substring( 0, idx );
 
-        Closure parser = registeredParsers.get(ct);
+        ResponseParser parser = registeredParsers.get(ct);
         if ( parser != null ) return parser;
 
         log.warn( "Cannot find parser for content-type: " + ct
@@ -388,11 +565,22 @@ public class ParserRegistry {
      *   data to the response handler.
      */
     public void putAt( Object contentType, Closure value ) {
+        this.putParser( contentType, adapt( value ) );
+    }
+
+    /**
+     * Register a new parser for the given content-type.
+     * @param contentType either a {@link ContentType} or a
+     *   <code>content-type</code> string
+     * @param parser parser for the content-type, or <code>null</code> to use
+     *   the default parser.
+     */
+    public void putParser( Object contentType, ResponseParser parser ) {
         if ( contentType instanceof ContentType ) {
             for ( String ct : ((ContentType)contentType).getContentTypeStrings() )
-                this.registeredParsers.put( ct, value );
+                this.registeredParsers.put( ct, parser );
         }
-        else this.registeredParsers.put( contentType.toString(), value );
+        else this.registeredParsers.put( contentType.toString(), parser );
     }
 
     /**
@@ -418,6 +606,96 @@ public class ParserRegistry {
      * @return
      */
     public Iterator<Map.Entry<String,Closure>> iterator() {
-        return this.registeredParsers.entrySet().iterator();
+        Map<String,Closure> closures = new LinkedHashMap<String,Closure>();
+        for ( Map.Entry<String,ResponseParser> entry : registeredParsers.entrySet() )
+            closures.put( entry.getKey(), toClosure( entry.getValue() ) );
+        return closures.entrySet().iterator();
+    }
+
+    private Map<String,ResponseParser> adapt( Map<String,Closure> closures ) {
+        Map<String,ResponseParser> parsers = new HashMap<String,ResponseParser>();
+        for ( Map.Entry<String,Closure> entry : closures.entrySet() )
+            parsers.put( entry.getKey(), adapt( entry.getValue() ) );
+        return parsers;
+    }
+
+    /**
+     * Adapt a parser closure to the {@link ResponseParser} interface.  Method
+     * closures for this class' own <code>parse...</code> methods (as created by
+     * {@link #buildDefaultParserMap()}) are replaced by a parser which calls
+     * the method directly.
+     * @param closure parser closure, or <code>null</code>
+     * @return the adapted parser, or <code>null</code>
+     */
+    protected ResponseParser adapt( Closure closure ) {
+        if ( closure == null ) return null;
+        if ( closure instanceof MethodClosure && closure.getOwner() == this ) {
+            ResponseParser parser = builtIn( ((MethodClosure)closure).getMethod(), closure );
+            if ( parser != null ) return parser;
+        }
+        return new ClosureParser( closure );
+    }
+
+    private Closure toClosure( ResponseParser parser ) {
+        if ( parser == null ) return null;
+        if ( parser instanceof ClosureParser ) return ((ClosureParser)parser).getClosure();
+        if ( parser instanceof BuiltInParser ) return ((BuiltInParser)parser).closure;
+        return new MethodClosure( parser, "parse" );
+    }
+
+    /* Returns a parser which calls one of this class' parse methods without
+       going through the closure, or null if the method is not one of them. */
+    private ResponseParser builtIn( String method, Closure closure ) {
+        if ( "parseStream".equals( method ) ) return new BuiltInParser( closure ) {
+            public Object parse( HttpResponse resp ) throws Exception { return parseStream( resp ); }
+        };
+        if ( "parseText".equals( method ) ) return new BuiltInParser( closure ) {
+            public Object parse( HttpResponse resp ) throws Exception { return parseText( resp ); }
+        };
+        if ( "parseForm".equals( method ) ) return new BuiltInParser( closure ) {
+            public Object parse( HttpResponse resp ) throws Exception { return parseForm( resp ); }
+        };
+        if ( "parseHTML".equals( method ) ) return new BuiltInParser( closure ) {
+            public Object parse( HttpResponse resp ) throws Exception { return parseHTML( resp ); }
+        };
+        if ( "parseXML".equals( method ) ) return new BuiltInParser( closure ) {
+            public Object parse( HttpResponse resp ) throws Exception { return parseXML( resp ); }
+        };
+        if ( "parseJSON".equals( method ) ) return new BuiltInParser( closure ) {
+            public Object parse( HttpResponse resp ) throws Exception { return parseJSON( resp ); }
+        };
+        if ( "parseXMLStream".equals( method ) ) return new BuiltInParser( closure ) {
+            public Object parse( HttpResponse resp ) throws Exception { return parseXMLStream( resp ); }
+        };
+        return null;
+    }
+
+    /* Keeps the method closure it replaces, for getAt() and iterator() */
+    private static abstract class BuiltInParser implements ResponseParser {
+        final Closure closure;
+
+        BuiltInParser( Closure closure ) {
+            this.closure = closure;
+        }
+    }
+
+    /**
+     * Adapts a parser closure to the {@link ResponseParser} interface.
+     */
+    public static class ClosureParser implements ResponseParser {
+        private final Closure closure;
+
+        public ClosureParser( Closure closure ) {
+            if ( closure == null ) throw new IllegalArgumentException( "closure may not be null" );
+            this.closure = closure;
+        }
+
+        public Object parse( HttpResponse response ) {
+            return closure.call( response );
+        }
+
+        public Closure getClosure() {
+            return closure;
+        }
     }
 }
@@ -238,12 +238,15 @@ public class RESTClient extends HTTPBuilder {
     /**
      * Returns an {@link HttpResponseDecorator}, which provides simplified
      * access to headers, response code, and parsed response body, as well as
-     * the underlying {@link HttpResponse} instance.
+     * the underlying {@link HttpResponse} instance.  With
+     * {@link #setLazyParsing(boolean) lazy parsing}, the response body is
+     * not parsed until {@link HttpResponseDecorator#getData()} is called.
      */
     @Override
     protected HttpResponseDecorator defaultSuccessHandler( HttpResponseDecorator resp, Object data )
             throws ResponseParseException {
-        resp.setData( super.defaultSuccessHandler( resp, data ) );
+        if ( resp.isDataParsed() )
+            resp.setData( super.defaultSuccessHandler( resp, data ) );
         return resp;
     }
 
@@ -259,7 +262,8 @@ public class RESTClient extends HTTPBuilder {
      */
     protected void defaultFailureHandler( HttpResponseDecorator resp, Object data )
             throws HttpResponseException {
-        resp.setData( super.defaultSuccessHandler( resp, data ) );
+        if ( resp.isDataParsed() )
+            resp.setData( super.defaultSuccessHandler( resp, data ) );
         throw new HttpResponseException( resp );
     }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.IOException;
+
+import org.apache.http.HttpEntity;
+
+/**
+ * Creates a request entity from a request body for a given content-type.
+ * Encoders are registered with an {@link EncoderRegistry}, either directly
+ * via {@link EncoderRegistry#putEncoder(Object, RequestEncoder)} or as a
+ * closure via {@link EncoderRegistry#putAt(Object, groovy.lang.Closure)},
+ * which is adapted to this interface.
+ *
+ * @see EncoderRegistry
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public interface RequestEncoder {
+
+    /**
+     * Encode the request body.
+     * @param body whatever was set as the request
+     *   {@link HTTPBuilder.RequestConfigDelegate#setBody(Object) body}
+     * @param contentType the request content-type
+     * @return the request entity
+     * @throws IOException if the body could not be encoded
+     */
+    HttpEntity encode( Object body, Object contentType ) throws IOException;
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown by {@link AsyncHTTPBuilder} request methods when the request queue
+ * is full and the builder's overflow policy is
+ * {@link AsyncHTTPBuilder.OverflowPolicy#FAIL FAIL}.  Callers may catch this
+ * to throttle or retry later.
+ *
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class RequestQueueFullException extends RejectedExecutionException {
+
+    private static final long serialVersionUID = 4310923582764523091L;
+
+    private final int queueSize;
+
+    public RequestQueueFullException( int queueSize ) {
+        super( "Request queue is full (" + queueSize + " requests waiting)" );
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * @return the capacity of the queue that was full.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.CharArrayWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Buffers streaming response content so it can be read after the connection
+ * has been released.  Content is held in memory without any additional
+ * copies, unless it grows beyond a given threshold, in which case it is
+ * written to a temporary file instead.  The temporary file is deleted when
+ * the returned stream is closed.
+ *
+ * @see HTTPBuilder#setSpillThreshold(long)
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+class ResponseBuffer {
+
+    static final String TEMP_FILE_PREFIX = "httpbuilder";
+    private static final int CHUNK_SIZE = 8192;
+
+    private ResponseBuffer() {}
+
+    /**
+     * Read the entire stream and close it.
+     * @param in response content
+     * @param spillThreshold max number of bytes to hold in memory, or
+     *  <code>0</code> for no limit.
+     * @return a stream which will return the same content
+     */
+    static InputStream buffer( InputStream in, long spillThreshold ) throws IOException {
+        try {
+            ExposedByteArrayOutputStream memory = new ExposedByteArrayOutputStream();
+            byte[] chunk = new byte[CHUNK_SIZE];
+            int read;
+            while ( ( read = in.read( chunk ) ) >= 0 ) {
+                if ( spillThreshold > 0 && memory.size() + read > spillThreshold ) {
+                    File temp = createTempFile();
+                    OutputStream out = null;
+                    InputStream result = null;
+                    try {
+                        out = new FileOutputStream( temp );
+                        memory.writeTo( out );
+                        out.write( chunk, 0, read );
+                        while ( ( read = in.read( chunk ) ) >= 0 ) out.write( chunk, 0, read );
+                        out.close();
+                        result = new TempFileInputStream( temp );
+                    }
+                    finally {
+                        if ( result == null ) discard( out, temp );
+                    }
+                    return result;
+                }
+                memory.write( chunk, 0, read );
+            }
+            return memory.toInputStream();
+        }
+        finally { in.close(); }
+    }
+
+    /**
+     * Read the entire entity, so the connection can be released.  Content
+     * which fits within the threshold is returned as a repeatable entity.
+     * Larger content is returned as an entity which can be read once, from
+     * a temporary file that is deleted when its content is closed or
+     * consumed.
+     * @param entity response entity
+     * @param spillThreshold max number of bytes to hold in memory, or
+     *  <code>0</code> for no limit.
+     * @return an entity with the same content and headers
+     */
+    static HttpEntity buffer( HttpEntity entity, long spillThreshold ) throws IOException {
+        final InputStream content = buffer( entity.getContent(), spillThreshold );
+        if ( content instanceof TempFileInputStream ) {
+            final long length = ((TempFileInputStream)content).file.length();
+            return new HttpEntityWrapper( entity ) {
+                @Override public InputStream getContent() { return content; }
+                @Override public long getContentLength() { return length; }
+                @Override public boolean isRepeatable() { return false; }
+                @Override public boolean isStreaming() { return true; }
+                @Override public void writeTo( OutputStream out ) throws IOException {
+                    try {
+                        byte[] chunk = new byte[CHUNK_SIZE];
+                        int read;
+                        while ( ( read = content.read( chunk ) ) >= 0 ) out.write( chunk, 0, read );
+                    }
+                    finally { content.close(); }
+                }
+                @Override public void consumeContent() throws IOException { content.close(); }
+            };
+        }
+        MemoryInputStream memory = (MemoryInputStream)content;
+        ByteArrayEntity buffered = new ByteArrayEntity( memory.buffer(), 0, memory.available() );
+        buffered.setContentType( entity.getContentType() );
+        buffered.setContentEncoding( entity.getContentEncoding() );
+        return buffered;
+    }
+
+    /**
+     * Read the entire reader and close it.  Since characters are held in
+     * memory as UTF-16, each character counts as two bytes toward the
+     * threshold.
+     * @param in response content
+     * @param spillThreshold max number of bytes to hold in memory, or
+     *  <code>0</code> for no limit.
+     * @return a reader which will return the same content
+     */
+    static Reader buffer( Reader in, long spillThreshold ) throws IOException {
+        try {
+            ExposedCharArrayWriter memory = new ExposedCharArrayWriter();
+            char[] chunk = new char[CHUNK_SIZE];
+            int read;
+            while ( ( read = in.read( chunk ) ) >= 0 ) {
+                if ( spillThreshold > 0 && 2L * ( memory.size() + read ) > spillThreshold ) {
+                    File temp = createTempFile();
+                    Writer out = null;
+                    Reader result = null;
+                    try {
+                        out = new OutputStreamWriter( new FileOutputStream( temp ), "UTF-8" );
+                        memory.writeTo( out );
+                        out.write( chunk, 0, read );
+                        while ( ( read = in.read( chunk ) ) >= 0 ) out.write( chunk, 0, read );
+                        out.close();
+                        result = new InputStreamReader( new TempFileInputStream( temp ), "UTF-8" );
+                    }
+                    finally {
+                        if ( result == null ) discard( out, temp );
+                    }
+                    return result;
+                }
+                memory.write( chunk, 0, read );
+            }
+            return memory.toReader();
+        }
+        finally { in.close(); }
+    }
+
+    /* Not marked deleteOnExit(), which would hold on to the name of every
+       spilled response until the JVM exits; the file is deleted when the
+       returned stream is closed, or by discard() if buffering fails. */
+    private static File createTempFile() throws IOException {
+        return File.createTempFile( TEMP_FILE_PREFIX, ".tmp" );
+    }
+
+    /* Deletes a partially written temp file, without masking the original
+       error if the file cannot be closed. */
+    private static void discard( Closeable out, File temp ) {
+        try {
+            if ( out != null ) out.close();
+        }
+        catch ( IOException ex ) { /* already failing */ }
+        finally { temp.delete(); }
+    }
+
+    /* Allows reading the buffer without copying it */
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        InputStream toInputStream() {
+            return new MemoryInputStream( buf, count );
+        }
+    }
+
+    private static class MemoryInputStream extends ByteArrayInputStream {
+        MemoryInputStream( byte[] buf, int length ) {
+            super( buf, 0, length );
+        }
+
+        byte[] buffer() { return buf; }
+    }
+
+    private static class ExposedCharArrayWriter extends CharArrayWriter {
+        Reader toReader() {
+            return new CharArrayReader( buf, 0, count );
+        }
+    }
+
+    /**
+     * Deletes the temporary file once the stream is closed.
+     */
+    static class TempFileInputStream extends FileInputStream {
+        private final File file;
+
+        TempFileInputStream( File file ) throws IOException {
+            super( file );
+            this.file = file;
+        }
+
+        @Override public void close() throws IOException {
+            try { super.close(); }
+            finally { file.delete(); }
+        }
+    }
+}
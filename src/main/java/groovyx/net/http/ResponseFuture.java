@@ -0,0 +1,269 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import groovy.lang.Closure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>The {@link Future} returned by all {@link AsyncHTTPBuilder} request
+ * methods.  In addition to blocking on {@link #get()}, callbacks may be
+ * registered which are called as soon as the response handler completes.
+ * Each callback returns a new <code>ResponseFuture</code>, so dependent
+ * requests can be chained without waiting on a thread:</p>
+ *
+ * <pre>
+ * def http = new AsyncHTTPBuilder( uri : 'http://api.example.com', contentType : JSON )
+ *
+ * http.get( path : '/user/1' ).then { user ->
+ *     // returning a future from a callback chains the next request:
+ *     http.get( path : "/orders/${user.lastOrder}" )
+ * }.then { order ->
+ *     println "Last order: ${order.total}"
+ * }.whenComplete { result, ex ->
+ *     if ( ex ) println "Request failed: ${ex.message}"
+ * }
+ * </pre>
+ *
+ * <p>Callbacks are called from the thread that completed the request (usually
+ * a thread from the builder's thread pool,) or immediately from the calling
+ * thread if the future has already completed.  They should therefore be
+ * short, and should never block waiting on another request.</p>
+ *
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class ResponseFuture extends FutureTask<Object> {
+
+    private static final Log log = LogFactory.getLog( ResponseFuture.class );
+
+    private static final Callable<Object> NO_TASK = new Callable<Object>() {
+        public Object call() {
+            throw new IllegalStateException( "ResponseFuture is completed by its request" );
+        }
+    };
+
+    private final List<Runnable> callbacks = new ArrayList<Runnable>();
+    private boolean finished = false;
+    private volatile Future<?> request;
+
+    /**
+     * Create a future which will be completed by calling {@link #set(Object)}
+     * or {@link #setException(Throwable)}.
+     */
+    protected ResponseFuture() {
+        super( NO_TASK );
+    }
+
+    /**
+     * Create a future which will be completed by running the given task.
+     * @param task computes the result of this future when {@link #run()} is
+     *  called, e.g. from an executor.
+     */
+    protected ResponseFuture( Callable<Object> task ) {
+        super( task );
+    }
+
+    /**
+     * Register a callback to be called with the result of this future once
+     * it completes successfully.  If the request fails, the returned future
+     * fails with the same exception.
+     * @see #then(Closure, Closure)
+     * @param onSuccess closure which accepts the response handler's result
+     * @return a future which is completed with the callback's return value
+     */
+    public ResponseFuture then( Closure onSuccess ) {
+        return then( onSuccess, null );
+    }
+
+    /**
+     * <p>Register callbacks to be called once this future completes.  The
+     * returned future is completed with whatever value is returned by the
+     * callback that was called.  If that value is itself a
+     * <code>ResponseFuture</code> (e.g. a dependent request made from the
+     * callback,) the returned future completes once that request
+     * completes.</p>
+     *
+     * <p>If the callback throws an exception, the returned future fails with
+     * that exception.</p>
+     *
+     * @param onSuccess closure which accepts the response handler's result, or
+     *  <code>null</code> to pass the result through unchanged.
+     * @param onFailure closure which accepts the exception that caused the
+     *  request to fail (i.e. the cause of the {@link ExecutionException},) or
+     *  <code>null</code> to fail the returned future with the same exception.
+     * @return a future completed with the result of the callback
+     */
+    public ResponseFuture then( final Closure onSuccess, final Closure onFailure ) {
+        final ResponseFuture next = new ResponseFuture();
+        addCallback( new Runnable() {
+            public void run() {
+                Throwable failure = null;
+                Object result = null;
+                try { result = get(); }
+                catch ( ExecutionException ex ) { failure = ex.getCause(); }
+                catch ( CancellationException ex ) { failure = ex; }
+                catch ( InterruptedException ex ) { failure = ex; } // never thrown once done
+
+                if ( failure == null ) {
+                    if ( onSuccess != null ) next.complete( onSuccess, result );
+                    else next.set( result );
+                }
+                else if ( onFailure != null ) next.complete( onFailure, failure );
+                else next.setException( failure );
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Register a callback which is called whether this future succeeds or
+     * fails.  The closure is passed two arguments: the result (or
+     * <code>null</code> if the request failed) and the exception that caused
+     * the request to fail (or <code>null</code> if it succeeded.)  The
+     * returned future completes with the same outcome as this one, once the
+     * callback has been called.
+     * @param callback closure which accepts <code>result, exception</code>
+     * @return a future with the same result as this future
+     */
+    public ResponseFuture whenComplete( final Closure callback ) {
+        final ResponseFuture next = new ResponseFuture();
+        addCallback( new Runnable() {
+            public void run() {
+                Throwable failure = null;
+                Object result = null;
+                try { result = get(); }
+                catch ( ExecutionException ex ) { failure = ex.getCause(); }
+                catch ( CancellationException ex ) { failure = ex; }
+                catch ( InterruptedException ex ) { failure = ex; }
+
+                try { callback.call( new Object[] { result, failure } ); }
+                catch ( Throwable ex ) {
+                    if ( failure == null ) failure = ex;
+                }
+                if ( failure != null ) next.setException( failure );
+                else next.set( result );
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Cancel this future.  If the request which completes it is still in
+     * progress, it is aborted.  Cancelling a future returned by
+     * {@link #then(Closure, Closure)} or {@link #whenComplete(Closure)} does
+     * not affect the future it was derived from, or any other callbacks
+     * registered on it.
+     */
+    @Override public boolean cancel( boolean mayInterruptIfRunning ) {
+        Future<?> req = this.request;
+        if ( req != null ) req.cancel( mayInterruptIfRunning );
+        return super.cancel( mayInterruptIfRunning );
+    }
+
+    /**
+     * Associate the in-progress request which completes this future, so that
+     * cancelling this future will abort the request.
+     */
+    void setRequest( Future<?> request ) {
+        this.request = request;
+    }
+
+    @Override protected void set( Object result ) {
+        super.set( result );
+    }
+
+    @Override protected void setException( Throwable ex ) {
+        super.setException( ex );
+    }
+
+    /** Runs all registered callbacks once this future completes. */
+    @Override protected void done() {
+        List<Runnable> pending;
+        synchronized ( callbacks ) {
+            finished = true;
+            pending = new ArrayList<Runnable>( callbacks );
+            callbacks.clear();
+        }
+        for ( Runnable callback : pending ) runCallback( callback );
+    }
+
+    private void addCallback( Runnable callback ) {
+        synchronized ( callbacks ) {
+            if ( ! finished ) {
+                callbacks.add( callback );
+                return;
+            }
+        }
+        runCallback( callback );
+    }
+
+    private void runCallback( Runnable callback ) {
+        try { callback.run(); }
+        catch ( RuntimeException ex ) {
+            log.warn( "Error running response callback", ex );
+        }
+    }
+
+    /*
+     * Complete this future from the return value of the given closure,
+     * following any future returned by the closure.
+     */
+    private void complete( Closure callback, Object arg ) {
+        Object value;
+        try { value = callback.call( arg ); }
+        catch ( Throwable ex ) {
+            setException( ex );
+            return;
+        }
+        if ( value instanceof ResponseFuture ) {
+            ResponseFuture dependent = (ResponseFuture)value;
+            this.request = dependent;
+            dependent.addCallback( new Forward( dependent, this ) );
+        }
+        else set( value );
+    }
+
+    /** Completes one future with the outcome of another. */
+    private static class Forward implements Runnable {
+        private final ResponseFuture from, to;
+        Forward( ResponseFuture from, ResponseFuture to ) {
+            this.from = from; this.to = to;
+        }
+        public void run() {
+            try { to.set( from.get() ); }
+            catch ( ExecutionException ex ) { to.setException( ex.getCause() ); }
+            catch ( CancellationException ex ) { to.cancel( false ); }
+            catch ( InterruptedException ex ) { to.setException( ex ); }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import groovy.lang.Closure;
+
+import java.util.Map;
+
+/**
+ * Response handler map which also maintains an array of handlers indexed by
+ * status code, so that finding the handler for a response does not require
+ * any string conversion or hashing.  The array is updated as handlers are
+ * added or removed, and is only allocated once a handler is registered for
+ * a specific status code (i.e. <code>'404'</code> rather than
+ * <code>'failure'</code>.)
+ *
+ * <p>Keys are normalized to strings as with {@link StringHashMap}.  Handlers
+ * should only be changed through the <code>Map</code> methods, not through
+ * the key or entry set views.</p>
+ *
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+class ResponseHandlerMap extends StringHashMap<Closure> {
+
+    private static final long serialVersionUID = 2983428157349208121L;
+
+    static final int MIN_STATUS = 100, MAX_STATUS = 999;
+
+    private Closure[] byStatus;
+    private Closure success, failure;
+
+    public ResponseHandlerMap() { super(); }
+
+    public ResponseHandlerMap( Map<?,? extends Closure> contents ) {
+        super();
+        this.putAll( contents );
+    }
+
+    /**
+     * Get the handlers held by the given map without copying them, if it is a
+     * {@link CopyOnWriteMap} of handlers.  Otherwise a copy is returned.
+     */
+    @SuppressWarnings("unchecked")
+    static ResponseHandlerMap snapshotOf( Map<?,Closure> handlers ) {
+        if ( handlers instanceof CopyOnWriteMap<?> ) {
+            Map<Object,Closure> snapshot = ((CopyOnWriteMap<Closure>)handlers).snapshot();
+            if ( snapshot instanceof ResponseHandlerMap ) return (ResponseHandlerMap)snapshot;
+        }
+        return new ResponseHandlerMap( handlers );
+    }
+
+    /**
+     * Find the handler for the given status code.  A handler registered for
+     * the exact code takes precedence over the <code>success</code> or
+     * <code>failure</code> handler.
+     * @param statusCode HTTP response status code
+     * @return the handler, or <code>null</code> if none is registered.
+     * @throws IllegalArgumentException if the code is not a valid HTTP status.
+     */
+    public Closure find( int statusCode ) {
+        checkStatus( statusCode );
+        Closure handler = findExact( statusCode );
+        return handler != null ? handler : findGeneral( statusCode );
+    }
+
+    /* handler registered for this specific status code */
+    Closure findExact( int statusCode ) {
+        return byStatus != null ? byStatus[ statusCode - MIN_STATUS ] : null;
+    }
+
+    /* 'success' or 'failure' handler */
+    Closure findGeneral( int statusCode ) {
+        return Status.SUCCESS.matches( statusCode ) ? success : failure;
+    }
+
+    static void checkStatus( int statusCode ) {
+        if ( statusCode < MIN_STATUS || statusCode > MAX_STATUS )
+            Status.find( statusCode ); // throws
+    }
+
+    @Override
+    public Closure put( Object key, Closure value ) {
+        Closure old = super.put( key, value );
+        if ( key != null ) index( key.toString(), value );
+        return old;
+    }
+
+    @Override
+    public Closure remove( Object key ) {
+        Closure old = super.remove( key );
+        if ( key != null ) index( key.toString(), null );
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        byStatus = null;
+        success = failure = null;
+    }
+
+    @Override
+    public Object clone() {
+        ResponseHandlerMap copy = (ResponseHandlerMap)super.clone();
+        if ( byStatus != null ) copy.byStatus = byStatus.clone();
+        return copy;
+    }
+
+    private void index( String key, Closure value ) {
+        if ( key.equals( "success" ) ) success = value;
+        else if ( key.equals( "failure" ) ) failure = value;
+        else {
+            int code = parseStatus( key );
+            if ( code < 0 ) return;
+            if ( byStatus == null ) {
+                if ( value == null ) return;
+                byStatus = new Closure[ MAX_STATUS - MIN_STATUS + 1 ];
+            }
+            byStatus[ code - MIN_STATUS ] = value;
+        }
+    }
+
+    /* Parse a three digit status code key without allocating */
+    private static int parseStatus( String key ) {
+        if ( key.length() != 3 ) return -1;
+        int code = 0;
+        for ( int i = 0; i < 3; i++ ) {
+            char c = key.charAt( i );
+            if ( c < '0' || c > '9' ) return -1;
+            code = code * 10 + ( c - '0' );
+        }
+        return code >= MIN_STATUS ? code : -1;
+    }
+
+    /**
+     * Per-request handlers, layered on top of the builder's default handlers.
+     * Finding a handler checks both layers' status tables, so that a handler
+     * for a specific code in either layer takes precedence over a general
+     * <code>success</code> or <code>failure</code> handler, as if the two
+     * maps had been merged.
+     */
+    static class Layered extends LayeredMap<Closure> {
+
+        Layered( ResponseHandlerMap defaults ) {
+            super( defaults, new ResponseHandlerMap() );
+        }
+
+        public Closure find( int statusCode ) {
+            checkStatus( statusCode );
+            ResponseHandlerMap over = (ResponseHandlerMap)overrides;
+            ResponseHandlerMap base = (ResponseHandlerMap)defaults;
+            boolean hiding = hasHiddenDefaults();
+
+            Closure handler = over.findExact( statusCode );
+            if ( handler == null ) {
+                handler = base.findExact( statusCode );
+                if ( handler != null && hiding
+                        && isHidden( Integer.toString( statusCode ) ) ) handler = null;
+            }
+            if ( handler != null ) return handler;
+
+            handler = over.findGeneral( statusCode );
+            if ( handler == null ) {
+                handler = base.findGeneral( statusCode );
+                if ( handler != null && hiding
+                        && isHidden( Status.find( statusCode ).toString() ) ) handler = null;
+            }
+            return handler;
+        }
+
+        /* a null handler is the same as no handler, so it must hide the default */
+        @Override
+        public Closure put( Object key, Closure value ) {
+            if ( value == null ) return remove( key );
+            return super.put( key, value );
+        }
+    }
+}
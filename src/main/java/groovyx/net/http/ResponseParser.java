@@ -0,0 +1,48 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import org.apache.http.HttpResponse;
+
+/**
+ * Parses a response entity for a given content-type.  Parsers are
+ * registered with a {@link ParserRegistry}, either directly via
+ * {@link ParserRegistry#putParser(Object, ResponseParser)} or as a closure
+ * via {@link ParserRegistry#putAt(Object, groovy.lang.Closure)}, which is
+ * adapted to this interface.
+ *
+ * @see ParserRegistry
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public interface ResponseParser {
+
+    /**
+     * Parse the response data.
+     * @param response response with a non-null entity
+     * @return a value suitable to be passed as the 'parsed data' argument of a
+     *   response handler closure.
+     * @throws Exception if the response data could not be parsed.  This is
+     *   wrapped in a {@link ResponseParseException} by the caller.
+     */
+    Object parse( HttpResponse response ) throws Exception;
+}
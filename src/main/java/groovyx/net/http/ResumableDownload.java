@@ -0,0 +1,297 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import static groovyx.net.http.URIBuilder.convertToURI;
+import groovy.lang.Closure;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.DefaultHttpClient;
+
+/**
+ * <p>Downloads a resource to a file, continuing from where it left off when
+ * the connection drops rather than starting again from the first byte.  After
+ * a failure, the request is sent again with a <code>Range</code> header for
+ * the bytes that have not been written yet, and the <code>206</code> (partial
+ * content) response is appended to the file:</p>
+ * <pre>
+ * def download = new ResumableDownload( uri : 'http://example.com/big.iso',
+ *         saveTo : 'big.iso', retries : 10 )
+ * File file = download.download()
+ * </pre>
+ *
+ * <p>The <code>ETag</code> or <code>Last-Modified</code> validator from the
+ * first response is sent as <code>If-Range</code>, so if the resource has
+ * changed, the server sends it whole and the file is rewritten from the
+ * start.  In order to continue a partially downloaded file across separate
+ * <code>ResumableDownload</code> instances (e.g. after a restart) save the
+ * {@link #getValidator() validator} and pass it to the new instance.  Without
+ * one the server has no way to tell whether the partial file is stale, so an
+ * existing file is replaced unless <code>resume : true</code> is given.</p>
+ *
+ * @see ParallelDownload
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class ResumableDownload {
+
+    /** Default number of times the download is resumed after a failure. */
+    public static final int DEFAULT_RETRIES = 3;
+
+    protected final Log log = LogFactory.getLog( getClass() );
+
+    private final HTTPBuilder builder;
+    private final URI uri;
+    private final File file;
+    private Boolean resume;
+    private int retries = DEFAULT_RETRIES;
+    private Closure progress;
+
+    private volatile String validator;
+    private volatile long written;
+    private volatile long length = -1;
+    private volatile boolean complete;
+    /* true once the resume point has been taken from the file, so a later
+       call continues from the bytes this instance has written */
+    private boolean started;
+    /* false if the content was content-encoded, so byte offsets in the
+       file do not match offsets in the resource */
+    private boolean rangeable = true;
+
+    /**
+     * Accepts the following named parameters:
+     * <dl>
+     *  <dt>uri</dt><dd>The resource to download; either a URI, URL, or
+     *      object whose <code>toString()</code> produces a valid URI string.
+     *      Defaults to the <code>builder</code>'s default URI.</dd>
+     *  <dt>saveTo</dt><dd>(required) File, <code>java.nio.file.Path</code>
+     *      or file path to write to.</dd>
+     *  <dt>builder</dt><dd>An {@link HTTPBuilder} whose client and default
+     *      headers are used for each request.  If not given, a new client is
+     *      used for each download.</dd>
+     *  <dt>retries</dt><dd>How many times the download is resumed after a
+     *      failure.  Default is {@link #DEFAULT_RETRIES}.</dd>
+     *  <dt>resume</dt><dd>If <code>true</code>, an existing file is
+     *      continued from its end; if <code>false</code> it is replaced.  By
+     *      default it is only continued if a <code>validator</code> is
+     *      known.</dd>
+     *  <dt>validator</dt><dd>The {@link #getValidator() validator} from an
+     *      earlier, incomplete download of the same file.</dd>
+     *  <dt>progress</dt><dd>See {@link #setProgress(Closure)}</dd>
+     * </dl>
+     * @throws URISyntaxException if the uri argument does not represent a valid URI
+     */
+    public ResumableDownload( Map<String,?> args ) throws URISyntaxException {
+        if ( args == null ) throw new IllegalArgumentException( "args may not be null" );
+        this.builder = (HTTPBuilder)args.remove( "builder" );
+
+        Object uri = args.remove( "uri" );
+        if ( uri == null && builder != null ) uri = builder.getUri();
+        if ( uri == null ) throw new IllegalArgumentException( "No 'uri' parameter was given" );
+        this.uri = convertToURI( uri );
+
+        Object saveTo = args.remove( "saveTo" );
+        if ( saveTo == null ) throw new IllegalArgumentException( "No 'saveTo' parameter was given" );
+        this.file = FileTransfer.toFile( saveTo );
+
+        Object arg = args.remove( "retries" );
+        if ( arg != null ) setRetries( Integer.parseInt( arg.toString() ) );
+
+        arg = args.remove( "resume" );
+        if ( arg != null ) this.resume = Boolean.valueOf( arg.toString() );
+
+        arg = args.remove( "validator" );
+        if ( arg != null ) this.validator = arg.toString();
+
+        this.progress = (Closure)args.remove( "progress" );
+
+        if ( args.size() > 0 ) {
+            String invalidArgs = "";
+            for ( String k : args.keySet() ) invalidArgs += k + ",";
+            throw new IllegalArgumentException("Unexpected keyword args: " + invalidArgs);
+        }
+    }
+
+    /**
+     * Download the resource, continuing an existing file if there is one and
+     * either a validator is known or <code>resume</code> was given.
+     * If the download still fails after all retries, it may be called again
+     * to continue from the last byte written by this instance.
+     * @return the file that was written.
+     * @throws HttpResponseException if the server responds with an error
+     * @throws IOException if the download failed after all retries, or the
+     *  file could not be written
+     */
+    public synchronized File download() throws IOException {
+        HttpClient client = builder != null ? builder.getClient() : new DefaultHttpClient();
+        FileChannel channel = FileTransfer.openChannel( file );
+        try {
+            if ( ! started ) {
+                boolean resume = this.resume != null ? this.resume : validator != null;
+                this.written = resume ? channel.size() : 0;
+                this.started = true;
+            }
+            this.complete = false;
+            for ( int attempt = 0; ; attempt++ ) {
+                try {
+                    fetch( client, channel );
+                    break;
+                }
+                catch ( HttpResponseException ex ) { throw ex; }
+                catch ( IOException ex ) {
+                    if ( attempt >= retries ) throw ex;
+                    log.warn( "Download of " + uri + " failed after " + written
+                            + " bytes; resuming", ex );
+                }
+            }
+            channel.truncate( written );
+            return file;
+        }
+        finally {
+            channel.close();
+            if ( builder == null ) client.getConnectionManager().shutdown();
+        }
+    }
+
+    /**
+     * Request the bytes that have not been written yet, and write them to the
+     * file.
+     */
+    protected void fetch( HttpClient client, FileChannel channel ) throws IOException {
+        HttpGet get = new HttpGet( uri );
+        FileTransfer.addHeaders( builder, get );
+        boolean ranged = written > 0 && rangeable;
+        if ( ranged ) {
+            get.setHeader( "Range", "bytes=" + written + "-" );
+            if ( validator != null ) get.setHeader( "If-Range", validator );
+        }
+
+        boolean done = false;
+        HttpResponse resp = client.execute( get );
+        try {
+            int status = resp.getStatusLine().getStatusCode();
+            Header contentRange = resp.getFirstHeader( "Content-Range" );
+            if ( ranged && status == 416 && contentRange != null
+                    && contentRange.getValue().equals( "bytes */" + written ) ) {
+                // the file was already complete
+                this.length = written;
+                this.complete = done = true;
+                return;
+            }
+            if ( status != 200 && status != 206 )
+                throw new HttpResponseException( new HttpResponseDecorator( resp, null ) );
+
+            HttpEntity entity = resp.getEntity();
+            boolean encoded = entity != null && entity.getContentEncoding() != null;
+            if ( status == 206 ) {
+                if ( ! ranged || encoded || contentRange == null
+                        || ! contentRange.getValue().startsWith( "bytes " + written + "-" ) )
+                    throw new HttpResponseException( new HttpResponseDecorator( resp, null ),
+                            "Unexpected partial response: " + ( contentRange != null
+                                    ? contentRange.getValue() : null ) );
+                String total = contentRange.getValue().substring(
+                        contentRange.getValue().indexOf( '/' ) + 1 );
+                if ( ! "*".equals( total ) ) this.length = Long.parseLong( total.trim() );
+            }
+            else {
+                // whole resource; either new, changed or ranges not supported
+                if ( written > 0 ) log.debug( "Restarting download of " + uri );
+                this.written = 0;
+                /* drop the old content now, so if this attempt fails the
+                   file only holds what was written */
+                channel.truncate( 0 );
+                this.validator = FileTransfer.getValidator( resp );
+                this.rangeable = ! encoded;
+                this.length = encoded || entity == null ? -1 : entity.getContentLength();
+            }
+
+            if ( entity != null ) FileTransfer.transfer( entity.getContent(), channel, written,
+                    new FileTransfer.Progress() {
+                        public void written( long bytes ) {
+                            ResumableDownload.this.written += bytes;
+                            if ( progress != null ) progress.call( ResumableDownload.this );
+                        }
+                    } );
+            if ( length >= 0 && written < length ) throw new IOException(
+                    "Connection closed after " + written + " of " + length + " bytes" );
+            this.complete = done = true;
+        }
+        finally {
+            if ( ! done ) get.abort();
+        }
+    }
+
+    /**
+     * Set a closure that is called with this download each time part of the
+     * resource is written.
+     */
+    public void setProgress( Closure progress ) { this.progress = progress; }
+
+    public Closure getProgress() { return this.progress; }
+
+    /**
+     * Set how many times the download is resumed after a failure.
+     */
+    public void setRetries( int retries ) {
+        if ( retries < 0 ) throw new IllegalArgumentException( "retries may not be < 0" );
+        this.retries = retries;
+    }
+
+    public int getRetries() { return this.retries; }
+
+    public URI getUri() { return this.uri; }
+
+    public File getFile() { return this.file; }
+
+    /**
+     * @return the <code>ETag</code> or <code>Last-Modified</code> value of
+     * the resource being downloaded, or <code>null</code> if the server did
+     * not send one.
+     */
+    public String getValidator() { return this.validator; }
+
+    /**
+     * @return number of bytes in the file, including any that were there
+     * before the download started.
+     */
+    public long getWritten() { return this.written; }
+
+    /**
+     * @return the resource length, or <code>-1</code> if it is not known.
+     */
+    public long getLength() { return this.length; }
+
+    public boolean isComplete() { return this.complete; }
+}
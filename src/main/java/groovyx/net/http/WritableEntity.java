@@ -0,0 +1,101 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import groovy.lang.Writable;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * <p>Request entity which writes a {@link Writable} (such as markup bound by
+ * a <code>StreamingMarkupBuilder</code>) directly to the connection, encoding
+ * characters as they are written rather than first producing a String.
+ * Since the length is not known in advance the entity is sent with chunked
+ * transfer-encoding.</p>
+ *
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class WritableEntity extends AbstractHttpEntity {
+
+    private final Writable writable;
+    private final Charset charset;
+    private final boolean repeatable;
+
+    /**
+     * @param writable content to send
+     * @param charset character encoding of the request body
+     * @param repeatable true if the writable produces the same content each
+     *  time it is written, so the request may be retried or redirected.
+     */
+    public WritableEntity( Writable writable, Charset charset, boolean repeatable ) {
+        if ( writable == null ) throw new IllegalArgumentException( "writable may not be null" );
+        if ( charset == null ) throw new IllegalArgumentException( "charset may not be null" );
+        this.writable = writable;
+        this.charset = charset;
+        this.repeatable = repeatable;
+        setChunked( true );
+    }
+
+    public Writable getWritable() {
+        return this.writable;
+    }
+
+    public boolean isRepeatable() {
+        return this.repeatable;
+    }
+
+    public long getContentLength() {
+        return -1;
+    }
+
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Write the content to a buffer.  Note that this holds the entire
+     * content in memory; {@link #writeTo(OutputStream)} does not.
+     */
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeTo( buffer );
+        return new ByteArrayInputStream( buffer.toByteArray() );
+    }
+
+    public void writeTo( OutputStream out ) throws IOException {
+        if ( out == null ) throw new IllegalArgumentException( "Output stream may not be null" );
+        Writer writer = new BufferedWriter( new OutputStreamWriter( out, charset ) );
+        writable.writeTo( writer );
+        writer.flush();
+    }
+}
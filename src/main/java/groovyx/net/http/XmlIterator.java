@@ -0,0 +1,425 @@
+/*
+ * Copyright 2008-2011 Thomas Nichols.  http://blog.thomnichols.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * You are receiving this code free of charge, which represents many hours of
+ * effort from other individuals and corporations.  As a responsible member
+ * of the community, you are encouraged (but not required) to donate any
+ * enhancements or improvements back to the community under a similar open
+ * source license.  Thank you. -TMN
+ */
+package groovyx.net.http;
+
+import groovy.util.XmlSlurper;
+import groovy.util.slurpersupport.GPathResult;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * <p>Iterates over repeated elements of an XML document, such as the
+ * entries of an RSS or Atom feed, using a StAX pull parser.  Only the
+ * selected elements are built, each as a separate {@link GPathResult} like
+ * the one returned by <code>XmlSlurper</code>; the rest of the document is
+ * skipped event by event.  Memory use therefore depends on the size of one
+ * element rather than the whole document.</p>
+ *
+ * <p>Elements are selected by name, or by path:</p>
+ * <ul>
+ *   <li><code>entry</code> selects <code>entry</code> elements at any
+ *     depth.</li>
+ *   <li><code>feed/entry</code> selects <code>entry</code> elements whose
+ *     parent is a <code>feed</code> element.</li>
+ *   <li><code>/feed/entry</code> selects <code>entry</code> children of the
+ *     root <code>feed</code> element.</li>
+ * </ul>
+ * <p>Names are local names (without a namespace prefix), and
+ * <code>*</code> matches any element.  A selected element is returned
+ * whole, so elements nested inside it are not returned separately.</p>
+ *
+ * <p>Use {@link #parser(String...)} to stream a response from within a
+ * response handler:</p>
+ * <pre>
+ * http.get( path : '/feed', parser : XmlIterator.parser( 'entry' ) ) { resp, entries ->
+ *     entries.each { entry -> println entry.title }
+ * }
+ * </pre>
+ *
+ * <p>The underlying stream is closed once the last element has been read,
+ * or when {@link #close()} is called.  StAX is part of Java 6; on Java 5 a
+ * StAX implementation must be on the classpath.</p>
+ *
+ * @see ParserRegistry#parseXMLStream(HttpResponse)
+ * @author <a href='mailto:tomstrummer+httpbuilder@gmail.com'>Tom Nichols</a>
+ * @since 0.7.3
+ */
+public class XmlIterator implements Iterator<GPathResult>, Closeable {
+
+    private static XMLInputFactory factory;
+
+    private final XMLStreamReader reader;
+    private final Closeable source;
+    private final String[][] paths;
+    private final List<String> elements = new ArrayList<String>();
+    // prefixes declared by each open element, in step with elements:
+    private final List<Map<String,String>> namespaces = new ArrayList<Map<String,String>>();
+    private boolean closed = false;
+
+    private boolean ready = false;
+    private GPathResult nextValue;
+    private List<String> nextPath;
+    private List<String> currentPath;
+
+    /**
+     * @param reader XML document
+     * @param paths names or paths of the elements to select
+     * @throws IllegalStateException if a StAX parser cannot be created
+     */
+    public XmlIterator( Reader reader, String... paths ) {
+        this( createReader( reader ), reader, paths );
+    }
+
+    /**
+     * @param reader StAX reader positioned at or before the elements to select
+     * @param paths names or paths of the elements to select
+     */
+    public XmlIterator( XMLStreamReader reader, String... paths ) {
+        this( reader, null, paths );
+    }
+
+    private XmlIterator( XMLStreamReader reader, Closeable source, String... paths ) {
+        if ( reader == null ) throw new IllegalArgumentException( "reader may not be null" );
+        this.paths = parsePaths( paths );
+        this.reader = reader;
+        this.source = source;
+    }
+
+    private static String[][] parsePaths( String... paths ) {
+        if ( paths == null || paths.length < 1 )
+            throw new IllegalArgumentException( "At least one element name or path is required" );
+        String[][] parsed = new String[paths.length][];
+        for ( int i = 0; i < paths.length; i++ ) {
+            String path = paths[i];
+            if ( path == null || path.length() < 1 || path.endsWith( "/" ) || path.indexOf( "//" ) >= 0 )
+                throw new IllegalArgumentException( "Invalid element path: " + path );
+            // an absolute path starts with an empty segment:
+            parsed[i] = path.split( "/" );
+        }
+        return parsed;
+    }
+
+    /**
+     * Create a response parser which returns an <code>XmlIterator</code> over
+     * the response content.  Note that the iterator reads from the open
+     * connection, so it should be consumed from within a response handler,
+     * or with {@link HTTPBuilder#setStreamingResponses(boolean) streaming
+     * responses} enabled.
+     * @param paths element names or paths passed to
+     *  {@link #XmlIterator(Reader, String...)}
+     */
+    public static ResponseParser parser( final String... paths ) {
+        parsePaths( paths ); // fail early
+        return new ResponseParser() {
+            public Object parse( HttpResponse resp ) throws IOException {
+                HttpEntity entity = resp.getEntity();
+                InputStream in = entity.getContent();
+                return new XmlIterator( createReader( in, getCharset( resp ) ), in, paths );
+            }
+        };
+    }
+
+    /**
+     * Create a StAX reader over the live response stream.  If the response
+     * does not declare a charset, the parser detects the encoding from the
+     * document itself.
+     * @throws IllegalStateException if a StAX parser cannot be created
+     */
+    static XMLStreamReader createReader( HttpResponse resp ) throws IOException {
+        return createReader( resp.getEntity().getContent(), getCharset( resp ) );
+    }
+
+    private static String getCharset( HttpResponse resp ) {
+        try {
+            return resp.getEntity().getContentType().getElements()[0]
+                .getParameterByName( "charset" ).getValue();
+        }
+        catch ( RuntimeException ex ) { return null; } // no charset parameter
+    }
+
+    private static XMLStreamReader createReader( InputStream in, String charset ) {
+        try {
+            return charset != null ? getFactory().createXMLStreamReader( in, charset )
+                    : getFactory().createXMLStreamReader( in );
+        }
+        catch ( XMLStreamException ex ) {
+            throw new IllegalStateException( "Could not create XML stream reader", ex );
+        }
+    }
+
+    private static XMLStreamReader createReader( Reader in ) {
+        if ( in == null ) throw new IllegalArgumentException( "reader may not be null" );
+        try { return getFactory().createXMLStreamReader( in ); }
+        catch ( XMLStreamException ex ) {
+            throw new IllegalStateException( "Could not create XML stream reader", ex );
+        }
+    }
+
+    /* XMLInputFactory is thread-safe once configured */
+    private static synchronized XMLInputFactory getFactory() {
+        if ( factory == null ) {
+            XMLInputFactory f = XMLInputFactory.newInstance();
+            f.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE );
+            f.setProperty( XMLInputFactory.IS_COALESCING, Boolean.TRUE );
+            // resolve DTDs the same way as the other XML parsers:
+            f.setXMLResolver( new XMLResolver() {
+                public Object resolveEntity( String publicId, String systemId,
+                        String baseURI, String namespace ) throws XMLStreamException {
+                    try {
+                        InputSource source = ParserRegistry.getEntityResolver()
+                            .resolveEntity( publicId, systemId );
+                        if ( source == null ) return null;
+                        if ( source.getByteStream() != null ) return source.getByteStream();
+                        return source.getSystemId() != null
+                            ? new URL( source.getSystemId() ).openStream() : null;
+                    }
+                    catch ( Exception ex ) {
+                        throw new XMLStreamException( "Could not resolve entity " + systemId, ex );
+                    }
+                }
+            });
+            factory = f;
+        }
+        return factory;
+    }
+
+    public boolean hasNext() {
+        if ( ! ready && ! closed ) {
+            ready = advance();
+            if ( ! ready ) close();
+        }
+        return ready;
+    }
+
+    /**
+     * @throws IllegalStateException if the document is not well-formed, or
+     *  could not be read.
+     */
+    public GPathResult next() {
+        if ( ! hasNext() ) throw new NoSuchElementException();
+        ready = false;
+        currentPath = nextPath;
+        GPathResult value = nextValue;
+        nextValue = null;
+        return value;
+    }
+
+    /**
+     * @return the names of the elements leading from the document root to
+     *  (and including) the element last returned by {@link #next()}.
+     */
+    public List<String> getPath() {
+        if ( currentPath == null ) throw new IllegalStateException( "next() has not been called" );
+        return currentPath;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop iterating and close the underlying stream.
+     */
+    public void close() {
+        if ( closed ) return;
+        closed = true;
+        ready = false;
+        try { reader.close(); }
+        catch ( XMLStreamException ex ) { /* nothing more will be read */ }
+        if ( source != null ) {
+            try { source.close(); }
+            catch ( IOException ex ) { /* nothing more will be read */ }
+        }
+    }
+
+    /**
+     * Read events until the next selected element, and build it.
+     * @return false if the end of the document was reached.
+     */
+    private boolean advance() {
+        try {
+            while ( reader.hasNext() ) {
+                int event = reader.next();
+                if ( event == XMLStreamConstants.END_ELEMENT ) {
+                    endElement();
+                    continue;
+                }
+                if ( event != XMLStreamConstants.START_ELEMENT ) continue;
+
+                elements.add( reader.getLocalName() );
+                namespaces.add( declaredNamespaces() );
+                if ( ! isSelected() ) continue;
+
+                nextPath = Collections.unmodifiableList( new ArrayList<String>( elements ) );
+                nextValue = readElement();
+                endElement();
+                return true;
+            }
+            return false;
+        }
+        catch ( XMLStreamException ex ) {
+            close();
+            throw new IllegalStateException( "Error reading XML: " + ex.getMessage(), ex );
+        }
+        catch ( SAXException ex ) {
+            close();
+            throw new IllegalStateException( "Error building element: " + ex.getMessage(), ex );
+        }
+    }
+
+    private boolean isSelected() {
+        int depth = elements.size();
+        for ( String[] path : paths ) {
+            boolean absolute = path[0].length() == 0;
+            int length = absolute ? path.length - 1 : path.length;
+            if ( absolute ? depth != length : depth < length ) continue;
+            boolean match = true;
+            for ( int i = 1; i <= length && match; i++ ) {
+                String segment = path[path.length - i];
+                match = "*".equals( segment ) || segment.equals( elements.get( depth - i ) );
+            }
+            if ( match ) return true;
+        }
+        return false;
+    }
+
+    private void endElement() {
+        elements.remove( elements.size() - 1 );
+        namespaces.remove( namespaces.size() - 1 );
+    }
+
+    /* prefixes declared on the element at the current START_ELEMENT event */
+    private Map<String,String> declaredNamespaces() {
+        if ( reader.getNamespaceCount() == 0 ) return Collections.emptyMap();
+        Map<String,String> declared = new HashMap<String,String>();
+        for ( int i = 0; i < reader.getNamespaceCount(); i++ ) {
+            String prefix = reader.getNamespacePrefix( i );
+            if ( prefix != null && prefix.length() > 0 )
+                declared.put( prefix, reader.getNamespaceURI( i ) );
+        }
+        return declared;
+    }
+
+    /**
+     * Build the element at the current START_ELEMENT event by passing its
+     * events to an <code>XmlSlurper</code>, leaving the reader at its
+     * END_ELEMENT.  A new slurper is used for each element, since a slurper
+     * shares one map of namespace prefixes with every result it returns.
+     */
+    private GPathResult readElement() throws XMLStreamException, SAXException {
+        XmlSlurper slurper;
+        try { slurper = new XmlSlurper(); }
+        catch ( ParserConfigurationException ex ) {
+            throw new IllegalStateException( "Could not create XmlSlurper", ex );
+        }
+        slurper.startDocument();
+        // the prefixes in scope here; inner declarations replace outer ones:
+        Map<String,String> inScope = new HashMap<String,String>();
+        for ( Map<String,String> declared : namespaces ) inScope.putAll( declared );
+        for ( Map.Entry<String,String> ns : inScope.entrySet() )
+            slurper.startPrefixMapping( ns.getKey(), ns.getValue() );
+
+        // prefixes declared by the open elements nested inside this one:
+        List<Map<String,String>> nested = new ArrayList<Map<String,String>>();
+        int depth = 0;
+        while ( true ) {
+            switch ( reader.getEventType() ) {
+            case XMLStreamConstants.START_ELEMENT :
+                if ( depth++ > 0 ) {
+                    Map<String,String> declared = declaredNamespaces();
+                    for ( Map.Entry<String,String> ns : declared.entrySet() )
+                        slurper.startPrefixMapping( ns.getKey(), ns.getValue() );
+                    nested.add( declared );
+                }
+                slurper.startElement( namespaceURI(), reader.getLocalName(),
+                        qName( reader.getPrefix(), reader.getLocalName() ), attributes() );
+                break;
+            case XMLStreamConstants.END_ELEMENT :
+                slurper.endElement( namespaceURI(), reader.getLocalName(),
+                        qName( reader.getPrefix(), reader.getLocalName() ) );
+                if ( --depth > 0 ) {
+                    for ( String prefix : nested.remove( nested.size() - 1 ).keySet() )
+                        slurper.endPrefixMapping( prefix );
+                }
+                else {
+                    slurper.endDocument();
+                    return slurper.getDocument();
+                }
+                break;
+            case XMLStreamConstants.CHARACTERS :
+            case XMLStreamConstants.CDATA :
+            case XMLStreamConstants.SPACE :
+                slurper.characters( reader.getTextCharacters(),
+                        reader.getTextStart(), reader.getTextLength() );
+                break;
+            default : // comments, processing instructions
+            }
+            reader.next();
+        }
+    }
+
+    private String namespaceURI() {
+        String uri = reader.getNamespaceURI();
+        return uri != null ? uri : "";
+    }
+
+    private Attributes attributes() {
+        AttributesImpl attributes = new AttributesImpl();
+        for ( int i = 0; i < reader.getAttributeCount(); i++ ) {
+            String uri = reader.getAttributeNamespace( i );
+            String name = reader.getAttributeLocalName( i );
+            attributes.addAttribute( uri != null ? uri : "", name,
+                    qName( reader.getAttributePrefix( i ), name ), "CDATA",
+                    reader.getAttributeValue( i ) );
+        }
+        return attributes;
+    }
+
+    private static String qName( String prefix, String localName ) {
+        return prefix == null || prefix.length() == 0 ? localName : prefix + ':' + localName;
+    }
+}
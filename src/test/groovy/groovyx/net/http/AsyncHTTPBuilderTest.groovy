@@ -25,7 +25,11 @@ import org.junit.Ignore
 import org.junit.Test
 import static groovyx.net.http.ContentType.*
 import static groovyx.net.http.Method.*
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+import java.util.concurrent.TimeUnit
 import org.apache.http.conn.ConnectTimeoutException
 
 /**
@@ -178,4 +182,150 @@ public class AsyncHTTPBuilderTest {
         catch ( IllegalArgumentException ex ) { /* Expected result */ }
     }
 
-}
\ No newline at end of file
+    @Test public void testNonBlocking() {
+        def http = new AsyncHTTPBuilder( poolSize : 4, nonBlocking : true,
+                        ioThreads : 1, uri : 'http://hc.apache.org',
+                        contentType : ContentType.HTML )
+        assert http.nonBlocking
+
+        // interceptors added to the client apply once to each request:
+        def intercepted = [].asSynchronized()
+        http.client.addRequestInterceptor( { req, ctx ->
+            intercepted << req.requestLine.uri } as org.apache.http.HttpRequestInterceptor )
+
+        def responses = (1..8).collect {
+            http.get( path : '/' ) { resp, html ->
+                assert resp.status == 200
+                Thread.currentThread().name
+            }
+        }
+        // handlers run from the thread pool, not the I/O dispatch thread:
+        responses.each { assert ! it.get().contains( 'I/O dispatcher' ) }
+        assert intercepted.size() == 8
+
+        // and so does completion of a failed request:
+        def failedOn = new java.util.concurrent.ArrayBlockingQueue( 1 )
+        http.get( uri : 'http://localhost:1/' ).whenComplete { result, ex ->
+            assert ex != null
+            failedOn.put( Thread.currentThread().name )
+        }
+        assert ! failedOn.poll( 10, java.util.concurrent.TimeUnit.SECONDS ).contains( 'I/O dispatcher' )
+        http.shutdown()
+    }
+
+    @Test public void testComposedRequests() {
+        def http = new AsyncHTTPBuilder( poolSize : 2, uri : 'http://hc.apache.org',
+                        contentType : ContentType.HTML )
+
+        ResponseFuture result = http.get( path : '/' ) { resp, html ->
+            html.HEAD.TITLE.text()
+        }.then { title ->
+            // dependent request is chained rather than blocking:
+            http.get( path : '/httpcomponents-client-ga/' ) { resp, html -> title }
+        }.then { it.toUpperCase() }
+
+        assert result.get().contains( 'APACHE' )
+
+        def failure = null
+        def recovered = http.get( path : '/doesnotexist.html' ).then( null ) { ex ->
+            failure = ex
+            ex.response.status
+        }.whenComplete { status, ex -> assert ex == null }
+        assert recovered.get() == 404
+        assert failure instanceof HttpResponseException
+
+        // cancelling a derived future leaves the source future running:
+        def source = http.get( path : '/' ) { resp, html -> resp.status }
+        def sibling = source.then { it + 1 }
+        assert source.then { it }.cancel( true )
+        assert source.get() == 200
+        assert sibling.get() == 201
+
+        http.shutdown()
+    }
+
+    @Test public void testVirtualThreads() {
+        def http
+        try {
+            http = new AsyncHTTPBuilder( virtualThreads : true, maxConnections : 2,
+                        uri : 'http://hc.apache.org', contentType : ContentType.HTML )
+        }
+        catch ( UnsupportedOperationException ex ) { return } // JDK < 21
+
+        assert http.virtualThreads
+        assert http.maxConnections == 2
+        assert http.maxConnectionsPerRoute == 2
+
+        def responses = (1..10).collect {
+            http.get( path : '/' ) { resp, html -> resp.status }
+        }
+        responses.each { assert it.get() == 200 }
+        http.shutdown()
+    }
+
+    @Test public void testBoundedQueue() {
+        def http = new AsyncHTTPBuilder( poolSize : 1, queueSize : 1,
+                        overflowPolicy : 'fail', uri : 'http://hc.apache.org',
+                        contentType : ContentType.HTML )
+        assert http.queueSize == 1
+        assert http.overflowPolicy == AsyncHTTPBuilder.OverflowPolicy.FAIL
+
+        // occupy the only thread and fill the queue without sending anything:
+        def started = new CountDownLatch( 1 )
+        def latch = new CountDownLatch( 1 )
+        http.threadPool.execute { started.countDown(); latch.await() }
+        assert started.await( 10, TimeUnit.SECONDS )
+        def queued = new FutureTask( { 'queued' } as Callable )
+        http.threadPool.execute( queued )
+        assert http.queueDepth == 1
+
+        try {
+            http.get( path : '/' )
+            throw new AssertionError( "request should have been rejected" )
+        }
+        catch ( RequestQueueFullException ex ) {
+            assert ex.queueSize == 1
+        }
+        latch.countDown()
+        assert queued.get( 10, TimeUnit.SECONDS ) == 'queued'
+        http.shutdown()
+
+        // the oldest queued request is cancelled to make room:
+        http = new AsyncHTTPBuilder( poolSize : 1, queueSize : 1,
+                        overflowPolicy : 'drop_oldest', uri : 'http://hc.apache.org',
+                        contentType : ContentType.HTML )
+        started = new CountDownLatch( 1 )
+        latch = new CountDownLatch( 1 )
+        http.threadPool.execute { started.countDown(); latch.await() }
+        assert started.await( 10, TimeUnit.SECONDS )
+        queued = new FutureTask( { 'queued' } as Callable )
+        http.threadPool.execute( queued )
+
+        def newest = http.get( path : '/' )
+        assert queued.cancelled
+        // take the newest request out of the queue too, so it is never sent:
+        assert http.threadPool.queue.remove( newest )
+        latch.countDown()
+        http.shutdown()
+
+        // in non-blocking mode, requests in progress are limited when sent:
+        http = new AsyncHTTPBuilder( poolSize : 1, queueSize : 1, nonBlocking : true,
+                        overflowPolicy : 'fail', uri : 'http://hc.apache.org',
+                        contentType : ContentType.HTML )
+        latch = new CountDownLatch( 1 )
+        first = http.get( path : '/' ) { resp, html -> latch.await(); resp.status }
+        second = http.get( path : '/' ) { resp, html -> resp.status }
+        try {
+            http.get( path : '/' )
+            throw new AssertionError( "request should have been rejected" )
+        }
+        catch ( RequestQueueFullException ex ) {
+            assert ex.queueSize == 1
+        }
+        latch.countDown()
+        assert first.get() == 200
+        assert second.get() == 200
+        assert http.get( path : '/' ) { resp, html -> resp.status }.get() == 200
+        http.shutdown()
+    }
+}
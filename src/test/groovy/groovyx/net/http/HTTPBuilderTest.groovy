@@ -374,4 +374,238 @@ class HTTPBuilderTest {
          }
          assert result == 'bob'
     }
+
+    @Test public void testSharedConnectionPool() {
+        def pool = new ConnectionPool( maxTotal: 50, maxPerRoute: 10, idleTimeout: 1000 )
+        pool.setMaxPerRoute( 'https://api.twitter.com', 20 )
+        assert pool.maxTotal == 50
+        assert pool.maxPerRoute == 10
+        assert pool.getMaxPerRoute( 'https://api.twitter.com:443/1.1/' ) == 20
+        assert pool.idleTimeout == 1000
+
+        def http1 = new HTTPBuilder()
+        def interceptors = http1.client.requestInterceptorCount
+        http1.connectionPool = pool
+        assert http1.client.requestInterceptorCount == interceptors
+
+        def http2 = new RESTClient( 'http://www.google.com' )
+        http2.connectionPool = pool
+        assert http1.client.connectionManager.is( pool.connectionManager )
+        assert http2.client.connectionManager.is( pool.connectionManager )
+
+        // switching away from a pool leaves the shared pool open:
+        http2.connectionPool = new ConnectionPool()
+        http2.connectionPool.shutdown()
+        http2.connectionPool = null
+        def route = new org.apache.http.conn.routing.HttpRoute(
+                new org.apache.http.HttpHost( 'www.google.com' ) )
+        def conn = pool.connectionManager.requestConnection( route, null ).getConnection(
+                1, java.util.concurrent.TimeUnit.SECONDS )
+        pool.connectionManager.releaseConnection( conn, 0, java.util.concurrent.TimeUnit.SECONDS )
+
+        // shutting down a builder leaves the shared pool open:
+        http1.shutdown()
+        assert pool.stats.max == 50
+        pool.shutdown()
+        assert pool.idleTimeout == 0
+    }
+
+    @Test public void testResponseHandlerDispatch() {
+        def success = { 'success' }, failure = { 'failure' }, notFound = { '404' }
+        def handlers = new ResponseHandlerMap( success : success, failure : failure )
+        assert handlers.find( 200 ).is( success )
+        assert handlers.find( 302 ).is( success )
+        assert handlers.find( 404 ).is( failure )
+
+        handlers."${404}" = notFound
+        assert handlers.find( 404 ).is( notFound )
+        assert handlers.find( 500 ).is( failure )
+
+        handlers.remove( 404 )
+        assert handlers.find( 404 ).is( failure )
+        try {
+            handlers.find( 1000 )
+            throw new AssertionError( "invalid status should be rejected" )
+        }
+        catch ( IllegalArgumentException ex ) { /* Expected result */ }
+    }
+
+    @Test public void testLayeredDefaults() {
+        def defaults = new CopyOnWriteMap<Object>( new StringHashMap<Object>() )
+        defaults.putAll( 'X-A' : 'a', 'X-B' : 'b' )
+        def snapshot = defaults.snapshot()
+
+        def headers = new LayeredMap<Object>( snapshot, new StringHashMap<Object>() )
+        headers.remove( 'X-B' )
+        headers."${'X-C'}" = 'c'
+        assert headers == [ 'X-A' : 'a', 'X-C' : 'c' ]
+
+        // changing the defaults does not affect existing layers:
+        defaults.'X-D' = 'd'
+        assert ! headers.containsKey( 'X-D' )
+        assert snapshot.keySet() == [ 'X-A', 'X-B' ] as Set
+        assert defaults.keySet() == [ 'X-A', 'X-B', 'X-D' ] as Set
+
+        headers.clear()
+        assert headers.isEmpty()
+
+        // replaced in one change, which existing snapshots don't see either:
+        def previous = defaults.snapshot()
+        defaults.replaceWith( 'X-E' : 'e' )
+        assert defaults == [ 'X-E' : 'e' ]
+        assert previous.keySet() == [ 'X-A', 'X-B', 'X-D' ] as Set
+
+        def http = new HTTPBuilder()
+        http.headers = [ 'X-A' : 'a' ]
+        http.headers = [ 'X-B' : 2 ]
+        assert http.headers == [ 'X-B' : '2' ]
+    }
+
+    @Test public void testStreamingAndSpilledResponses() {
+        def pool = new ConnectionPool()
+        def http = new HTTPBuilder( 'http://hc.apache.org/' )
+        http.connectionPool = pool
+
+        http.spillThreshold = 100
+        def data = http.get( path : '/', contentType : BINARY )
+        assert ! ( data instanceof ByteArrayInputStream ) // buffered to a temp file
+        assert data.text.contains( '</html>' )
+        data.close()
+
+        http.spillThreshold = 0
+        http.streamingResponses = true
+        data = http.get( path : '/', contentType : TEXT )
+        assert pool.stats.leased == 1 // held until the reader is closed
+        assert data.text.contains( '</html>' )
+        data.close()
+        assert pool.stats.leased == 0
+        pool.shutdown()
+    }
+
+    @Test public void testSpilledResponseCleanup() {
+        def tmp = new File( System.getProperty( 'java.io.tmpdir' ) )
+        def spilled = { tmp.listFiles().findAll {
+            it.name.startsWith( ResponseBuffer.TEMP_FILE_PREFIX ) && it.name.endsWith( '.tmp' )
+        } as Set }
+        def before = spilled()
+
+        def data = ResponseBuffer.buffer( new ByteArrayInputStream( new byte[200] ), 100 )
+        assert spilled().size() == before.size() + 1
+        data.close()
+        assert spilled() == before
+
+        // a partially written file is deleted if the response is aborted:
+        def aborted = new SequenceInputStream( new ByteArrayInputStream( new byte[200] ),
+                [ read : { throw new IllegalStateException( 'aborted' ) } ] as InputStream )
+        try {
+            ResponseBuffer.buffer( aborted, 100 )
+            fail( "exception should be thrown" )
+        }
+        catch ( IllegalStateException ex ) { assert ex.message == 'aborted' }
+        assert spilled() == before
+    }
+
+    @Test public void testRequestParserOnFailure() {
+        def http = new HTTPBuilder( 'http://hc.apache.org/' )
+        def parsed = false
+        def status = http.request( GET, TEXT ) {
+            uri.path = '/doesNotExist.html'
+            parser = { resp -> parsed = true }
+            response.failure = { resp, reader ->
+                assert reader instanceof Reader // parsed by content-type
+                resp.status
+            }
+        }
+        assert status == 404
+        assert ! parsed
+    }
+
+    @Test public void testParseErrorWrappedOnce() {
+        def http = new HTTPBuilder( 'http://hc.apache.org/' )
+        http.parser.'text/html' = { resp -> throw new IOException( 'bad body' ) }
+        try {
+            http.get( path : '/' )
+            assert false
+        }
+        catch ( ResponseParseException ex ) {
+            assert ex.cause instanceof IOException
+            assert ex.cause.message == 'bad body'
+        }
+    }
+
+    @Test public void testSaveTo() {
+        def http = new HTTPBuilder( 'http://hc.apache.org/' )
+        def file = File.createTempFile( 'httpbuilder', '.html' )
+        file.deleteOnExit()
+
+        def result = http.get( path : '/', saveTo : file.path )
+        assert result == file
+        assert file.text.contains( '</html>' )
+        def length = file.length()
+
+        def raf = new RandomAccessFile( file, 'rw' )
+        try {
+            raf.channel.position( length )
+            assert http.get( path : '/', saveTo : raf.channel ).is( raf.channel )
+            assert raf.channel.position() == length * 2
+        }
+        finally { raf.close() }
+
+        // an empty response still replaces the file's old content:
+        assert http.request( HEAD ) { uri.path = '/'; saveTo = file } == file
+        assert file.length() == 0
+    }
+
+    @Test public void testParallelDownload() {
+        def file = File.createTempFile( 'httpbuilder', '.html' )
+        file.deleteOnExit()
+        def segments = [] as Set
+        def download = new ParallelDownload( uri : 'http://hc.apache.org/',
+                saveTo : file, segments : 2, progress : { segments << it.index } )
+
+        assert download.download() == file
+        assert download.complete
+        assert segments.size() == download.segments.size()
+        assert file.text.contains( '</html>' )
+        if ( download.length > 0 ) assert file.length() == download.length
+    }
+
+    @Test public void testResumableDownload() {
+        def file = File.createTempFile( 'httpbuilder', '.html' )
+        file.deleteOnExit()
+        def download = new ResumableDownload( uri : 'http://hc.apache.org/', saveTo : file )
+        assert download.download() == file
+        assert download.complete
+        def content = file.text
+        assert content.contains( '</html>' )
+
+        // continue a partial file:
+        def raf = new RandomAccessFile( file, 'rw' )
+        try { raf.length = 100 }
+        finally { raf.close() }
+        download = new ResumableDownload( uri : 'http://hc.apache.org/',
+                saveTo : file, validator : download.validator )
+        download.download()
+        assert file.text == content
+
+        // without a validator, an existing file is replaced rather than continued:
+        file.text = 'stale'
+        new ResumableDownload( uri : 'http://hc.apache.org/', saveTo : file ).download()
+        assert file.text == content
+
+        // a failed download that replaced a larger file is continued cleanly:
+        file.bytes = new byte[ file.length() * 2 ]
+        def drop = true
+        download = new ResumableDownload( uri : 'http://hc.apache.org/', saveTo : file,
+                retries : 0, progress : { d ->
+                    if ( drop ) { drop = false; throw new IOException( 'dropped' ) } } )
+        try {
+            download.download()
+            assert false
+        }
+        catch ( IOException ex ) {}
+        assert file.length() == download.written
+        download.download()
+        assert file.text == content
+    }
 }
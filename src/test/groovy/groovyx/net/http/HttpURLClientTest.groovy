@@ -218,6 +218,42 @@ class HttpURLClientTest {
         }
     }
 
+    @Test public void testStreamingBody() {
+        def received = []
+        def server = com.sun.net.httpserver.HttpServer.create( new InetSocketAddress( 0 ), 0 )
+        server.createContext( '/', { ex ->
+            received << [ length : ex.requestHeaders.getFirst( 'Content-Length' ),
+                    encoding : ex.requestHeaders.getFirst( 'Transfer-Encoding' ),
+                    body : ex.requestBody.getText( 'UTF-8' ) ]
+            ex.responseHeaders.add( 'Content-Type', 'text/plain' )
+            ex.sendResponseHeaders( 200, 2 )
+            ex.responseBody.write( 'ok'.bytes )
+            ex.close()
+        } as com.sun.net.httpserver.HttpHandler )
+        server.start()
+        try {
+            def http = new HttpURLClient( url : "http://localhost:${server.address.port}/" )
+
+            // a body of unknown length is sent chunked, as it is written:
+            def count = 0
+            def records = [ hasNext : { count < 3 }, next : { count++ } ] as Iterator
+            http.request( method : POST, contentType : TEXT,
+                    requestContentType : JSON, body : records )
+            assert received[0].encoding?.toLowerCase() == 'chunked'
+            assert received[0].body == '[0,1,2]'
+
+            // a file upload has a known length, and is not buffered:
+            def file = File.createTempFile( 'httpbuilder', '.txt' )
+            file.deleteOnExit()
+            file.text = 'file content'
+            http.request( method : POST, contentType : TEXT,
+                    requestContentType : MULTIPART, body : [ upload : file ] )
+            assert received[1].length as long == received[1].body.size()
+            assert received[1].body.contains( 'file content' )
+        }
+        finally { server.stop( 0 ) }
+    }
+
     @Test public void testUnknownNamedParam() {
         def http = new HttpURLClient()
 
@@ -0,0 +1,54 @@
+package groovyx.net.http
+
+import groovy.util.XmlSlurper
+
+import org.apache.http.HttpVersion
+import org.apache.http.entity.StringEntity
+import org.apache.http.message.BasicHttpResponse
+
+/**
+ * Compares the cost of parsing a small XML or HTML response with a new
+ * parser created for every response (as ParserRegistry used to do) and with
+ * the pooled parsers ParserRegistry now reuses.  The documents are
+ * tiny, so the difference is the per-parse setup cost.  This is not a unit
+ * test; run it from the test classpath with an optional iteration count:
+ * <pre>java -cp ... groovyx.net.http.ParserBenchmark 5000</pre>
+ */
+class ParserBenchmark {
+
+    static final String XML = '<?xml version="1.0"?><status><id>1</id><text>ok</text></status>'
+    static final String HTML = '<html><head><title>t</title></head><body><p>ok</p></body></html>'
+
+    static void main( String[] args ) {
+        int iterations = args ? args[0] as int : 5000
+        def registry = new ParserRegistry()
+
+        compare( 'XML', iterations, XML, 'application/xml', { resp ->
+            def xml = new XmlSlurper()
+            xml.entityResolver = ParserRegistry.catalogResolver
+            xml.parse( registry.parseText( resp ) )
+        }, { resp -> registry.parseXML( resp ) } )
+
+        compare( 'HTML', iterations, HTML, 'text/html', { resp ->
+            def p = new org.cyberneko.html.parsers.SAXParser()
+            p.entityResolver = ParserRegistry.catalogResolver
+            new XmlSlurper( p ).parse( registry.parseText( resp ) )
+        }, { resp -> registry.parseHTML( resp ) } )
+    }
+
+    static void compare( String name, int iterations, String content, String contentType,
+            Closure perResponse, Closure reused ) {
+        def response = { ->
+            def resp = new BasicHttpResponse( HttpVersion.HTTP_1_1, 200, 'OK' )
+            resp.entity = new StringEntity( content, contentType, 'UTF-8' )
+            resp
+        }
+        [ 'new parser per response' : perResponse, 'reused parser' : reused ].each { label, parse ->
+            iterations.times { parse( response() ) } // warm up
+            long start = System.nanoTime()
+            iterations.times { parse( response() ) }
+            double micros = ( System.nanoTime() - start ) / 1000.0 / iterations
+            printf( '%-4s  %-24s %8.1f us/parse%n', name, label, micros )
+        }
+    }
+}
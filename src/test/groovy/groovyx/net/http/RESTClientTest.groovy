@@ -119,6 +119,60 @@ public class RESTClientTest {
         }
     }
 
+    @Test public void testLazyParsing() {
+        def rest = new RESTClient( 'http://hc.apache.org/' )
+        rest.lazyParsing = true
+        def parsed = 0
+        rest.parser.'text/html' = { resp -> parsed++; resp.entity.content.text }
+
+        def resp = rest.get( path : '/' )
+        assert resp.status == 200
+        assert resp.headers.'Content-Type'.startsWith( 'text/html' )
+        assert ! resp.dataParsed
+        assert parsed == 0
+
+        // parsed on first access, from the buffered response entity:
+        assert resp.data.contains( '</html>' )
+        assert resp.dataParsed
+        assert resp.data.is( resp.data )
+        assert parsed == 1
+
+        try {
+            rest.get( path : '/doesNotExist.html' )
+            assert false : "exception should be thrown"
+        }
+        catch ( HttpResponseException ex ) {
+            assert ex.response.status == 404
+            assert ! ex.response.dataParsed
+        }
+        assert parsed == 1
+
+        // a request's parser is only applied to a successful response:
+        def requestParsed = false
+        try {
+            rest.get( path : '/doesNotExist.html', parser : { r -> requestParsed = true } )
+            assert false : "exception should be thrown"
+        }
+        catch ( HttpResponseException ex ) {
+            assert ex.response.data instanceof String
+        }
+        assert ! requestParsed
+        assert parsed == 2
+
+        // concurrent first reads parse the body once:
+        resp = rest.get( path : '/' )
+        def threads = ( 1..4 ).collect { Thread.start { assert resp.data.contains( '</html>' ) } }
+        threads*.join()
+        assert parsed == 3
+
+        // a body over the spill threshold is parsed as it is received instead:
+        rest.spillThreshold = 1024
+        resp = rest.get( path : '/' )
+        assert resp.dataParsed
+        assert parsed == 4
+        assert resp.data.contains( '</html>' )
+    }
+
     @Test public void testQueryParameters() {
         twitter.contentType = 'text/javascript'
         twitter.headers = null
@@ -4,6 +4,9 @@ import org.apache.http.ProtocolVersion
 import org.apache.http.entity.StringEntity
 import org.apache.http.message.BasicHttpResponse
 import org.junit.Testimport java.io.StringReaderimport java.io.ByteArrayInputStream
+import java.nio.ByteBuffer
+import java.nio.charset.Charset
+import javax.xml.stream.XMLStreamConstants
 import static groovyx.net.http.ContentType.*
 /**
  * @author tnichols
@@ -56,6 +59,8 @@ public class RegistryTest {
         }, 'text/xml' )
         
         assert entity.contentType.value == "text/xml"
+        assert entity.chunked // written straight to the request stream
+        assert entity.repeatable
 //      println entity.content.text
         assert entity.content.text == "<xml AAA='aaa'><one>one</one><two>two</two></xml>"
         
@@ -74,6 +79,7 @@ public class RegistryTest {
         }, null )
         
         assert entity.contentType.value == 'text/plain'
+        assert entity.chunked
         assert entity.content.getText('ISO-8859-1') == "This is a test"
         assert entity.content.getText('utf-16') != "This is a test"
         
@@ -100,7 +106,9 @@ public class RegistryTest {
         }, null )
         
         assert entity.contentType.value == 'application/octet-stream'
-        assert entity.contentLength == data.length
+        assert entity.contentLength < 0 // streamed when the request is sent
+        assert entity.chunked
+        assert ! entity.repeatable
         def result = new ByteArrayOutputStream() 
         result << entity.content
         assert result.toByteArray() == data
@@ -123,6 +131,42 @@ public class RegistryTest {
         result = new ByteArrayOutputStream() 
         result << entity.content
         assert result.toByteArray() == data
+
+        def file = File.createTempFile( 'httpbuilder', '.bin' )
+        file.deleteOnExit()
+        file.bytes = data
+        entity = reg.encodeStream( file, null ) // File
+        assert entity instanceof FileChannelEntity
+        assert entity.contentLength == data.length
+        assert ! entity.chunked
+        assert entity.repeatable
+        result = new ByteArrayOutputStream()
+        entity.writeTo( result )
+        assert result.toByteArray() == data
+
+        def raf = new RandomAccessFile( file, 'r' )
+        try {
+            raf.channel.position( 1 )
+            entity = reg.encodeStream( raf.channel, null ) // FileChannel
+            assert entity.contentLength == data.length - 1
+            result = new ByteArrayOutputStream()
+            entity.writeTo( result )
+            assert result.toByteArray() == data[1..-1] as byte[]
+            assert raf.channel.position() == 1
+        }
+        finally { raf.close() }
+
+        def buffer = ByteBuffer.allocateDirect( data.length )
+        buffer.put( data ).flip()
+        entity = reg.encodeStream( buffer, null ) // ByteBuffer
+        assert entity instanceof ByteBufferEntity
+        assert entity.contentLength == data.length
+        2.times {
+            result = new ByteArrayOutputStream()
+            entity.writeTo( result )
+            assert result.toByteArray() == data
+        }
+        assert buffer.position() == 0
     }
     
     @Test public void testJSONEncoder() {
@@ -189,4 +233,259 @@ public class RegistryTest {
         assert map.p1 == 'goober'
         assert map.p2 == 'something else' 
     }
+
+    @Test public void testTypedParserAndEncoder() {
+        def parsers = new ParserRegistry()
+        assert parsers.getParser( 'application/x-www-form-urlencoded' ) instanceof ResponseParser
+
+        def entity = new StringEntity( "p1=goober", "utf-8" )
+        def response = new BasicHttpResponse( new ProtocolVersion( "HTTP", 1, 1 ), 200, "OK" )
+        response.entity = entity
+        assert parsers.getParser( URLENC ).parse( response ).p1 == 'goober'
+
+        // closures are adapted, and typed parsers are exposed as closures:
+        parsers.'text/plain' = { resp -> 'closure' }
+        assert parsers.getParser( 'text/plain' ).parse( response ) == 'closure'
+        parsers.putParser( 'text/plain', { resp -> 'typed' } as ResponseParser )
+        assert parsers.'text/plain'.call( response ) == 'typed'
+
+        def encoders = new EncoderRegistry()
+        entity = encoders.getEncoder( URLENC ).encode( [p1:'one'], URLENC.toString() )
+        assert entity.content.text == 'p1=one'
+        encoders.'text/plain' = { body, ct -> new StringEntity( "$ct:$body" ) }
+        assert encoders.getEncoder( TEXT ).encode( 'x', 'text/plain' ).content.text == 'text/plain:x'
+
+        // each built-in codec calls its own method:
+        parsers = new ParserRegistry()
+        def parse = { ct, content ->
+            def resp = new BasicHttpResponse( new ProtocolVersion( "HTTP", 1, 1 ), 200, "OK" )
+            resp.entity = new StringEntity( content, ct, 'utf-8' )
+            parsers.getParser( ct ).parse( resp )
+        }
+        assert parse( BINARY.toString(), 'a' ) instanceof InputStream
+        assert parse( TEXT.toString(), 'a' ) instanceof Reader
+        assert parse( URLENC.toString(), 'a=1' ) == [ a : '1' ]
+        assert parse( XML.toString(), '<a>1</a>' ).name() == 'a'
+        encoders = new EncoderRegistry()
+        assert encoders.getEncoder( BINARY ).encode( 'a'.bytes, null ).content.text == 'a'
+        assert encoders.getEncoder( TEXT ).encode( 'a', null ).content.text == 'a'
+        assert encoders.getEncoder( URLENC ).encode( 'a=1', null ).content.text == 'a=1'
+        assert encoders.getEncoder( JSON ).encode( [ 1 ].iterator(), null ) instanceof JsonEntity
+        assert encoders.getEncoder( NDJSON ).encode( [ 1 ], null ) instanceof NdjsonEntity
+        assert encoders.getEncoder( MULTIPART ).encode( [ a : '1' ], null ) instanceof MultipartEntity
+    }
+
+    @Test public void testJsonIterator() {
+        def json = '{"total":2,"items":[{"id":1,"tags":["a"]},{"id":2,"tags":[]}],"next":null}'
+        def items = new JsonIterator( new StringReader( json ), '$.items[*]' )
+        assert items.collect { it } == [ [id:1, tags:['a']], [id:2, tags:[]] ]
+
+        def ids = new JsonIterator( new StringReader( json ), '$.items[*].id', '$.total' )
+        assert ids.next() == 2
+        assert ids.path == ['total']
+        assert ids.next() == 1
+        assert ids.path == ['items', 0, 'id']
+        assert ids.next() == 2
+        assert ! ids.hasNext()
+
+        assert new JsonIterator( new StringReader( '[1,[2],{"a":3}]' ), '$[*]' ).collect { it } ==
+            [ 1, [2], [a:3] ]
+    }
+
+    @Test public void testJsonProjection() {
+        def json = '{"id":7,"owner":{"login":"tom","urls":["a","b"]},"items":[{"id":1,"x":2},{"id":2}]}'
+        def result = JsonIterator.project( new StringReader( json ),
+                '$.id', '$.owner.login', '$.items[*].id' )
+        assert result == [ id:7, owner:[login:'tom'], items:[ [id:1], [id:2] ] ]
+        assert JsonIterator.project( new StringReader( json ), '$.missing' ) == [:]
+
+        // null values are selected like any other:
+        json = '{"name":"x","license":null,"tags":[null,"a"]}'
+        result = JsonIterator.project( new StringReader( json ), '$.license', '$.tags[*]' )
+        assert result == [ license:null, tags:[ null, 'a' ] ]
+        assert result.containsKey( 'license' )
+    }
+
+    @Test public void testXmlIterator() {
+        def xml = """<?xml version="1.0"?>
+<feed xmlns="http://www.w3.org/2005/Atom"><title>t</title>
+  <entry id="1"><title>one</title></entry>
+  <group><entry id="2"><title>two</title></entry></group>
+  <entry id="3"><title>three</title></entry>
+</feed>"""
+        def entries = new XmlIterator( new StringReader( xml ), 'entry' )
+        assert entries.collect { it.title.text() } == [ 'one', 'two', 'three' ]
+
+        entries = new XmlIterator( new StringReader( xml ), '/feed/entry' )
+        assert entries.next().@id == '1'
+        assert entries.path == [ 'feed', 'entry' ]
+        assert entries.next().@id == '3'
+        assert ! entries.hasNext()
+
+        def resp = new BasicHttpResponse( new ProtocolVersion( 'HTTP', 1, 1 ), 200, 'OK' )
+        resp.entity = new StringEntity( xml, 'application/xml', 'utf-8' )
+        entries = XmlIterator.parser( 'group/entry' ).parse( resp )
+        assert entries.collect { it.title.text() } == [ 'two' ]
+
+        resp.entity = new StringEntity( xml, 'application/xml', 'utf-8' )
+        def reader = new ParserRegistry().parseXMLStream( resp )
+        assert reader.nextTag() == XMLStreamConstants.START_ELEMENT
+        assert reader.localName == 'feed'
+
+        // a prefix redefined by a later sibling does not change earlier results:
+        entries = new XmlIterator( new StringReader( '<r xmlns:p="urn:r">' +
+                '<i xmlns:p="urn:one"><p:x>1</p:x></i><i><p:x>2</p:x></i>' +
+                '<i xmlns:p="urn:two"><p:x>3</p:x></i></r>' ), 'i' )
+        def items = entries.collect { it }
+        assert items*.x*.text() == [ '1', '2', '3' ]
+        assert items*.lookupNamespace( 'p' ) == [ 'urn:one', 'urn:r', 'urn:two' ]
+    }
+
+    @Test public void testXMLParserReuse() {
+        def parser = new ParserRegistry()
+        def response = { xml ->
+            def resp = new BasicHttpResponse( new ProtocolVersion( 'HTTP', 1, 1 ), 200, 'OK' )
+            resp.entity = new StringEntity( xml, 'application/xml', 'utf-8' )
+            resp
+        }
+        def first = parser.parseXML( response( '<a><b>1</b></a>' ) )
+        try {
+            parser.parseXML( response( '<a><b>' ) )
+            assert false
+        }
+        catch ( org.xml.sax.SAXException ex ) {}
+        def second = parser.parseXML( response( '<c><d>2</d></c>' ) )
+        assert first.name() == 'a' && first.b == '1'
+        assert second.name() == 'c' && second.d == '2'
+
+        ParserRegistry.clearParserCache()
+        def third = parser.parseXML( response( '<e>3</e>' ) )
+        assert third.name() == 'e' && third == '3'
+
+        // each result keeps its own namespace prefixes:
+        def one = parser.parseXML( response( '<r xmlns:p="urn:one"><p:x>1</p:x></r>' ) )
+        def two = parser.parseXML( response( '<r xmlns:p="urn:two"><p:x>2</p:x></r>' ) )
+        assert one.lookupNamespace( 'p' ) == 'urn:one'
+        assert two.lookupNamespace( 'p' ) == 'urn:two'
+        assert one.x == '1' && two.x == '2'
+    }
+
+    @Test public void testEntityCache() {
+        def dtd = File.createTempFile( 'httpbuilder', '.dtd' )
+        dtd.deleteOnExit()
+        dtd.text = '<!ENTITY nbsp "&#160;">'
+        def resolved = 0
+        def catalog = { publicId, systemId ->
+            resolved++
+            systemId == 'http://example.com/test.dtd' ? new org.xml.sax.InputSource( dtd.toURI().toString() ) : null
+        } as org.xml.sax.EntityResolver
+        def resolver = new CachingEntityResolver( catalog, 1024 )
+
+        2.times {
+            def builder = javax.xml.parsers.DocumentBuilderFactory.newInstance().newDocumentBuilder()
+            builder.entityResolver = resolver
+            def doc = builder.parse( new org.xml.sax.InputSource(
+                    new StringReader( '<!DOCTYPE a SYSTEM "http://example.com/test.dtd"><a>x&nbsp;y</a>' ) ) )
+            assert doc.documentElement.textContent == 'x\u00A0y'
+        }
+        assert resolved == 1
+        assert resolver.size() == 1
+
+        dtd.delete() // cached content is still used
+        assert resolver.resolveEntity( null, 'http://example.com/test.dtd' ).byteStream.text == '<!ENTITY nbsp "&#160;">'
+        assert resolver.resolveEntity( null, 'http://example.com/other.dtd' ) == null
+        assert resolver.size() == 1
+
+        assert ParserRegistry.entityResolver instanceof CachingEntityResolver
+    }
+
+    @Test public void testStreamingJSONEncoder() {
+        def entity = new EncoderRegistry().encodeJSON( [
+                [ id : 1, uri : new URI( 'http://example.com/' ) ],
+                [ text : 'say "hi"\n' ] ].iterator(), null )
+        assert entity instanceof JsonEntity
+        assert entity.chunked
+        assert entity.contentLength < 0
+        def out = new ByteArrayOutputStream()
+        entity.writeTo( out )
+        assert out.toString( 'utf-8' ) ==
+            '[{"id":1,"uri":"http://example.com/"},{"text":"say \\"hi\\"\\n"}]'
+
+        // an iterator can only be written once
+        assert ! new JsonEntity( [1].iterator(), Charset.forName( 'utf-8' ) ).repeatable
+
+        // a small, finite model is sent with its exact length:
+        entity = new EncoderRegistry().encodeJSON( [ 1, [ a : 'b' ] ] as Object[], null )
+        assert ! entity.chunked
+        assert entity.contentLength == 13
+        assert entity.content.text == '[1,{"a":"b"}]'
+
+        def big = new String[ JsonEntity.MAX_BUFFERED_SIZE.intdiv( 4 ) ]
+        java.util.Arrays.fill( big, 'abc' )
+        entity = new EncoderRegistry().encodeJSON( big, null )
+        assert entity.chunked
+        assert entity.content.text.length() == big.length * 6 + 1
+
+        // a nested iterator is not read until the body is sent:
+        entity = new JsonEntity( [ [1, 2].iterator() ] as Object[], Charset.forName( 'utf-8' ) )
+        assert entity.chunked
+        out = new ByteArrayOutputStream()
+        entity.writeTo( out )
+        assert out.toString( 'utf-8' ) == '[[1,2]]'
+
+        // Maps, Collections and beans are still encoded by json-lib:
+        entity = new EncoderRegistry().encodeJSON( [ a : 1 ], null )
+        assert ! ( entity instanceof JsonEntity )
+        assert ! entity.chunked
+        assert entity.contentLength == 7
+
+        // ... unless streamingJSON is set:
+        def encoder = new EncoderRegistry()
+        encoder.streamingJSON = true
+        entity = encoder.encodeJSON( [ a : 1, b : [ 1, 2 ] ], null )
+        assert entity instanceof JsonEntity
+        out = new ByteArrayOutputStream()
+        entity.writeTo( out )
+        assert out.toString( 'utf-8' ) == '{"a":1,"b":[1,2]}'
+        assert entity.contentLength == out.size()
+        assert ! ( encoder.encodeJSON( '{"a":1}', null ) instanceof JsonEntity )
+    }
+
+    @Test public void testNDJSONEncoder() {
+        def count = 0
+        def records = [ hasNext : { count < 3 }, next : { [id : count++] } ] as Iterator
+        def entity = new EncoderRegistry().getEncoder( NDJSON ).encode( records, null )
+        assert entity.contentType.value == 'application/x-ndjson'
+        assert entity.content.text == '{"id":0}\n{"id":1}\n{"id":2}\n'
+        assert ! entity.repeatable
+    }
+
+    @Test public void testMultipartEncoder() {
+        def file = File.createTempFile( 'httpbuilder', '.txt' )
+        file.deleteOnExit()
+        file.text = 'file content'
+        def reg = new EncoderRegistry()
+        def entity = reg.getEncoder( MULTIPART ).encode( [ title : 'photos', upload : file,
+                tags : [ 'a', 'b' ], csv : [ content : 'x,y', filename : 'data.csv', contentType : 'text/csv' ] ], null )
+        assert entity instanceof MultipartEntity
+        def boundary = entity.boundary
+        assert entity.contentType.value == "multipart/form-data; boundary=$boundary"
+        assert entity.repeatable
+        assert ! entity.chunked
+        def text = entity.content.getText( 'utf-8' )
+        assert entity.contentLength == text.length()
+        assert text == "--$boundary\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\nphotos\r\n" +
+            "--$boundary\r\nContent-Disposition: form-data; name=\"upload\"; filename=\"$file.name\"\r\n" +
+            "Content-Type: text/plain\r\n\r\nfile content\r\n" +
+            "--$boundary\r\nContent-Disposition: form-data; name=\"tags\"\r\n\r\na\r\n" +
+            "--$boundary\r\nContent-Disposition: form-data; name=\"tags\"\r\n\r\nb\r\n" +
+            "--$boundary\r\nContent-Disposition: form-data; name=\"csv\"; filename=\"data.csv\"\r\n" +
+            "Content-Type: text/csv\r\n\r\nx,y\r\n--$boundary--\r\n"
+
+        // a stream of unknown length is sent chunked
+        entity = reg.encodeMultipart( [ data : [ read : { -> -1 } ] as InputStream ], null )
+        assert entity.contentLength < 0
+        assert entity.chunked
+        assert ! entity.repeatable
+    }
 }
@@ -0,0 +1,49 @@
+package groovyx.net.http
+
+import org.apache.http.HttpVersion
+import org.apache.http.entity.StringEntity
+import org.apache.http.message.BasicHttpResponse
+
+/**
+ * Measures the cold-start cost of ParserRegistry for a client that only
+ * parses JSON.  Class initialization only happens once per JVM, so each
+ * sample runs in a new JVM, which times creating a ParserRegistry and
+ * parsing one JSON response.  The 'eager' samples also load the XML catalog
+ * up front, as the ParserRegistry static initializer used to do.  This is
+ * not a unit test; run it from the test classpath with an optional number
+ * of samples:
+ * <pre>java -cp ... groovyx.net.http.StartupBenchmark 10</pre>
+ */
+class StartupBenchmark {
+
+    static void main( String[] args ) {
+        if ( args && args[0] == '--probe' ) {
+            probe( args[1] == 'eager' )
+            return
+        }
+        int samples = args ? args[0] as int : 10
+        def java = new File( System.getProperty( 'java.home' ), 'bin/java' ).path
+        def classpath = System.getProperty( 'java.class.path' )
+        [ 'lazy', 'eager' ].each { mode ->
+            def times = ( 1..samples ).collect {
+                def proc = [ java, '-cp', classpath, StartupBenchmark.name, '--probe', mode ].execute()
+                def out = proc.text.trim()
+                if ( proc.waitFor() != 0 ) throw new IllegalStateException( "Probe failed: $out" )
+                out.readLines()[-1] as long
+            }.sort()
+            printf( '%-6s catalog: median %8.2f ms, min %8.2f ms (%d JVMs)%n', mode,
+                    times[samples.intdiv( 2 )] / 1e6, times[0] / 1e6, samples )
+        }
+    }
+
+    static void probe( boolean eager ) {
+        def resp = new BasicHttpResponse( HttpVersion.HTTP_1_1, 200, 'OK' )
+        resp.entity = new StringEntity( '{"status":"ok"}', 'application/json', 'UTF-8' )
+
+        long start = System.nanoTime()
+        def parser = new ParserRegistry()
+        if ( eager ) ParserRegistry.getCatalogResolver()
+        assert parser.parseJSON( resp ).status == 'ok'
+        println System.nanoTime() - start
+    }
+}